@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor.benchmarks;
+
+import ro.fortsoft.auditor.AuditEvent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Helpers that create the input for benchmarks.
+ *
+ * @author Decebal Suiu
+ */
+final class AuditEvents {
+
+    private AuditEvents() {
+    }
+
+    /**
+     * Create {@code cardinality} distinct events (distinct action, username, session, ip),
+     * each with {@code contextSize} entries in context.
+     *
+     * @param cardinality
+     * @param contextSize
+     * @return
+     */
+    static AuditEvent[] create(int cardinality, int contextSize) {
+        AuditEvent[] events = new AuditEvent[cardinality];
+        for (int i = 0; i < cardinality; i++) {
+            Map<String, Object> context = new HashMap<>();
+            for (int j = 0; j < contextSize; j++) {
+                context.put("key" + j, (j % 2 == 0) ? "value" + i : (Object) (i * j));
+            }
+
+            events[i] = new AuditEvent("Action" + i)
+                .setUsername("user" + i)
+                .setSession("5b2c6f5e-5b0c-4a3a-a5b4-" + String.format("%012d", i))
+                .setIp("10.0." + (i / 256 % 256) + "." + (i % 256))
+                .setContext(context);
+        }
+
+        return events;
+    }
+
+    /**
+     * A stream that discards everything.
+     *
+     * @return
+     */
+    static PrintStream nullPrintStream() {
+        return new PrintStream(new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+            }
+
+        });
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor.benchmarks;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.WriterAppender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ro.fortsoft.auditor.AsyncFileAuditor;
+import ro.fortsoft.auditor.AuditEvent;
+import ro.fortsoft.auditor.Auditor;
+import ro.fortsoft.auditor.ConsoleAuditor;
+import ro.fortsoft.auditor.FileAuditor;
+import ro.fortsoft.auditor.MappedFileAuditor;
+import ro.fortsoft.auditor.ThreadLocalFileAuditor;
+import ro.fortsoft.auditor.SimpleAuditEventFormatter;
+import ro.fortsoft.auditor.log4j.AuditPatternLayout;
+import ro.fortsoft.auditor.log4j.Log4jAuditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link Auditor#audit(AuditEvent)} hot path for all auditor implementations.
+ * The number of threads is given on the command line ({@code -t}) or by {@link BenchmarkRunner}.
+ *
+ * @author Decebal Suiu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuditorBenchmark {
+
+    @Param({ "console", "file", "async", "mapped", "threadlocal", "log4j" })
+    public String auditorType;
+
+    @Param({ "0", "4", "16" })
+    public int contextSize;
+
+    @Param({ "1", "1024" })
+    public int cardinality;
+
+    private Auditor auditor;
+    private File directory;
+    private AuditEvent[] events;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        events = AuditEvents.create(cardinality, contextSize);
+        directory = Files.createTempDirectory("audit").toFile();
+        File file = new File(directory, "audit.log");
+
+        switch (auditorType) {
+            case "console":
+                auditor = new ConsoleAuditor(AuditEvents.nullPrintStream(), SimpleAuditEventFormatter.get());
+                break;
+            case "file":
+                auditor = new FileAuditor(file);
+                break;
+            case "async":
+                auditor = new AsyncFileAuditor(file);
+                break;
+            case "mapped":
+                auditor = new MappedFileAuditor(file);
+                break;
+            case "threadlocal":
+                auditor = new ThreadLocalFileAuditor(file);
+                break;
+            case "log4j":
+                Logger logger = Logger.getLogger("audit.benchmark");
+                logger.removeAllAppenders();
+                logger.setAdditivity(false);
+                WriterAppender appender = new WriterAppender(new AuditPatternLayout(), new OutputStreamWriter(AuditEvents.nullPrintStream()));
+                ((AuditPatternLayout) appender.getLayout()).setConversionPattern("[%d{MM/dd/yyyy HH:mm:ss}] %-5p %U %S %H %m%n");
+                logger.addAppender(appender);
+                auditor = new Log4jAuditor(logger.getName());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown auditor type '" + auditorType + "'");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (auditor instanceof FileAuditor) {
+            ((FileAuditor) auditor).close();
+        } else if (auditor instanceof MappedFileAuditor) {
+            ((MappedFileAuditor) auditor).close();
+        } else if (auditor instanceof ThreadLocalFileAuditor) {
+            ((ThreadLocalFileAuditor) auditor).close();
+        }
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public void audit(ThreadState state) {
+        auditor.audit(events[state.next(events.length)]);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private int index;
+
+        int next(int length) {
+            if (++index >= length) {
+                index = 0;
+            }
+
+            return index;
+        }
+
+    }
+
+}
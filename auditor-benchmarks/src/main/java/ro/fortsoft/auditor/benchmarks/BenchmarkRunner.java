@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks for 1, 2, 4, ... up to N threads (N is the number of available processors,
+ * or the first argument), with the GC profiler enabled (it reports the allocation rate).
+ * The second argument (optional) is a regexp that selects the benchmarks (default all).
+ *
+ * Usage:
+ * {@code java -cp target/benchmarks.jar ro.fortsoft.auditor.benchmarks.BenchmarkRunner [maxThreads] [regexp]}
+ *
+ * For a single run use the JMH command line directly, for example:
+ * {@code java -jar target/benchmarks.jar AuditorBenchmark -t 4 -prof gc}
+ *
+ * @author Decebal Suiu
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        int maxThreads = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        String include = (args.length > 1) ? args[1] : "ro.fortsoft.auditor.benchmarks.*Benchmark";
+
+        for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+            Options options = new OptionsBuilder()
+                .include(include)
+                .threads(threads)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-result-" + threads + "-threads.json")
+                .build();
+            new Runner(options).run();
+        }
+    }
+
+    private static int nextThreadCount(int threads, int maxThreads) {
+        if (threads == maxThreads) {
+            return maxThreads + 1;
+        }
+
+        return Math.min(threads * 2, maxThreads);
+    }
+
+}
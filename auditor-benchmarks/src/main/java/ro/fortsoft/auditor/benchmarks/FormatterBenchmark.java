@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ro.fortsoft.auditor.AppendableAuditEventFormatter;
+import ro.fortsoft.auditor.AuditEvent;
+import ro.fortsoft.auditor.JsonAuditEventFormatter;
+import ro.fortsoft.auditor.SimpleAuditEventFormatter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link SimpleAuditEventFormatter} and {@link JsonAuditEventFormatter}, both the {@link String} and the {@code formatTo} paths.
+ *
+ * @author Decebal Suiu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatterBenchmark {
+
+    @Param({ "simple", "json" })
+    public String formatterType;
+
+    @Param({ "0", "4", "16" })
+    public int contextSize;
+
+    @Param({ "1", "1024" })
+    public int cardinality;
+
+    private AppendableAuditEventFormatter formatter;
+    private AuditEvent[] events;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        formatter = "json".equals(formatterType) ? new JsonAuditEventFormatter() : new SimpleAuditEventFormatter();
+        events = AuditEvents.create(cardinality, contextSize);
+    }
+
+    @Benchmark
+    public String formatEvent(ThreadState state) {
+        return formatter.formatEvent(events[state.next(events.length)]);
+    }
+
+    @Benchmark
+    public StringBuilder formatToAppendable(ThreadState state) throws IOException {
+        StringBuilder sb = state.sb;
+        sb.setLength(0);
+        formatter.formatTo(events[state.next(events.length)], sb);
+
+        return sb;
+    }
+
+    @Benchmark
+    public ByteBuffer formatToByteBuffer(ThreadState state) {
+        ByteBuffer buffer = state.buffer;
+        buffer.clear();
+        formatter.formatTo(events[state.next(events.length)], buffer);
+
+        return buffer;
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private final StringBuilder sb = new StringBuilder(1024);
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        private int index;
+
+        int next(int length) {
+            if (++index >= length) {
+                index = 0;
+            }
+
+            return index;
+        }
+
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The futures returned by {@link Auditor#auditAsync(AuditEvent)}, each waiting for a position
+ * (for example a write sequence or a buffer position) to be reached.
+ * The futures are kept sorted by position, so a future added out of order (by a slower thread)
+ * is completed with the positions before it.
+ *
+ * @author Decebal Suiu
+ */
+final class Acknowledgements {
+
+    private static final Comparator<Acknowledgement> ORDER = new Comparator<Acknowledgement>() {
+
+        @Override
+        public int compare(Acknowledgement a, Acknowledgement b) {
+            int result = Long.compare(a.position, b.position);
+
+            return (result != 0) ? result : Long.compare(a.serial, b.serial);
+        }
+
+    };
+
+    private final NavigableSet<Acknowledgement> queue = new ConcurrentSkipListSet<>(ORDER);
+    private final AtomicLong serials = new AtomicLong();
+
+    CompletableFuture<Void> add(long position) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        add(position, future);
+
+        return future;
+    }
+
+    void add(long position, CompletableFuture<Void> future) {
+        queue.add(new Acknowledgement(position, serials.getAndIncrement(), future));
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Complete the futures waiting for a position up to the given one.
+     *
+     * @param position
+     * @param error if not {@code null} the futures are completed exceptionally
+     */
+    void complete(long position, Throwable error) {
+        Acknowledgement acknowledgement;
+        while ((acknowledgement = first()) != null && acknowledgement.position <= position) {
+            if (queue.remove(acknowledgement)) {
+                acknowledgement.complete(error);
+            }
+        }
+    }
+
+    /**
+     * Complete exceptionally the futures waiting for exactly the given position (for example of a dropped element).
+     *
+     * @param position
+     * @param error
+     */
+    void fail(long position, Throwable error) {
+        Acknowledgement from = new Acknowledgement(position, Long.MIN_VALUE, null);
+        Acknowledgement to = new Acknowledgement(position, Long.MAX_VALUE, null);
+        for (Acknowledgement acknowledgement : queue.subSet(from, true, to, true)) {
+            if (queue.remove(acknowledgement)) {
+                acknowledgement.complete(error);
+            }
+        }
+    }
+
+    void failAll(Throwable error) {
+        Acknowledgement acknowledgement;
+        while ((acknowledgement = queue.pollFirst()) != null) {
+            acknowledgement.complete(error);
+        }
+    }
+
+    private Acknowledgement first() {
+        // first() throws if another thread removed the last element
+        Iterator<Acknowledgement> it = queue.iterator();
+
+        return it.hasNext() ? it.next() : null;
+    }
+
+    static CompletableFuture<Void> failed(Throwable error) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+
+        return future;
+    }
+
+    private static class Acknowledgement {
+
+        private final long position;
+        private final long serial;
+        private final CompletableFuture<Void> future;
+
+        private Acknowledgement(long position, long serial, CompletableFuture<Void> future) {
+            this.position = position;
+            this.serial = serial;
+            this.future = future;
+        }
+
+        private void complete(Throwable error) {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(null);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link Auditor} that counts the events per kind (action, username, ip and level) and per time bucket
+ * (one minute by default), and optionally passes the events to another auditor.
+ * Only the last {@code buckets} buckets are kept, so the memory is bounded; the bucket of an event is
+ * chosen by the event timestamp.
+ *
+ * The kinds of events are interned: each one gets an id (found with a per thread probe key, without
+ * allocation) and the counts of a bucket are a striped array of primitive counters indexed by id,
+ * so an update is one atomic increment. When {@code maxKeys} kinds are in use, the new kinds are counted
+ * under the {@link #OTHER} action; the kinds without counts in the kept buckets are reclaimed
+ * when a new bucket starts.
+ *
+ * The queries ({@link #count(String, String, String, int, long, long)} and
+ * {@link #top(int, String, String, String, int, long, long)}) read the counters without locks.
+ * Example, the users with most failed logins in the last 15 minutes:
+ * {@code
+ * long now = System.currentTimeMillis();
+ * auditor.top(10, "Login", null, null, AuditEvent.ERROR, now - TimeUnit.MINUTES.toMillis(15), now);
+ * }
+ *
+ * The class is thread safe.
+ *
+ * @author Decebal Suiu
+ */
+public class AggregatingAuditor implements Auditor {
+
+    public static final long DEFAULT_BUCKET_SIZE = TimeUnit.MINUTES.toMillis(1);
+    public static final int DEFAULT_BUCKETS = 60;
+    public static final int DEFAULT_MAX_KEYS = 1024;
+
+    /**
+     * The action of the counts of the kinds that didn't fit in {@code maxKeys}.
+     */
+    public static final String OTHER = "other";
+
+    /**
+     * The level used in queries for events with any level.
+     */
+    public static final int ANY_LEVEL = -1;
+
+    // fewer stripes than StripedCounter, a bucket has a counter for each key in each stripe
+    private static final int STRIPES = Math.min(StripedCounter.STRIPES, 4);
+    private static final int OTHER_ID = 0;
+
+    private final Auditor auditor;
+    private final long bucketSize;
+    private final int maxKeys;
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    private final ConcurrentMap<EventKey, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<EventKey> keys;
+    private final Queue<Integer> freeIds = new ArrayDeque<>(); // guarded by ids
+    private final List<Integer> releasedIds = new ArrayList<>(); // guarded by ids
+    private final AtomicBoolean reclaiming = new AtomicBoolean();
+    private int nextId = OTHER_ID + 1; // guarded by ids
+    private volatile boolean full;
+
+    private final ThreadLocal<EventKey> probe = new ThreadLocal<EventKey>() {
+
+        @Override
+        protected EventKey initialValue() {
+            return new EventKey();
+        }
+
+    };
+
+    public AggregatingAuditor() {
+        this(null);
+    }
+
+    /**
+     * @param auditor the auditor that receives all events, or {@code null}
+     */
+    public AggregatingAuditor(Auditor auditor) {
+        this(auditor, DEFAULT_BUCKET_SIZE, DEFAULT_BUCKETS, DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * @param auditor the auditor that receives all events, or {@code null}
+     * @param bucketSize the time interval of a bucket, in milliseconds
+     * @param buckets the number of kept buckets
+     * @param maxKeys the maximum number of kinds of events counted separately
+     */
+    public AggregatingAuditor(Auditor auditor, long bucketSize, int buckets, int maxKeys) {
+        if (bucketSize <= 0 || buckets <= 0) {
+            throw new IllegalArgumentException("The bucket size and the number of buckets must be positive");
+        }
+        if (maxKeys < 2) {
+            throw new IllegalArgumentException("The maximum number of keys must be at least 2");
+        }
+
+        this.auditor = auditor;
+        this.bucketSize = bucketSize;
+        this.maxKeys = maxKeys;
+        this.buckets = new AtomicReferenceArray<>(buckets);
+
+        keys = new AtomicReferenceArray<>(maxKeys);
+        keys.set(OTHER_ID, new EventKey().set(OTHER, null, null, AuditEvent.INFO));
+    }
+
+    @Override
+    public void audit(AuditEvent event) {
+        if (auditor != null) {
+            auditor.audit(event);
+        }
+
+        count(event);
+    }
+
+    /**
+     * Forward the event to the wrapped auditor and count it.
+     *
+     * @param event
+     * @return the future of the wrapped auditor (a completed future if there is no wrapped auditor)
+     */
+    @Override
+    public CompletableFuture<Void> auditAsync(AuditEvent event) {
+        CompletableFuture<Void> future = (auditor != null) ? auditor.auditAsync(event) : CompletableFuture.<Void>completedFuture(null);
+        count(event);
+
+        return future;
+    }
+
+    /**
+     * Returns the number of events with the given kind, in the buckets that intersect {@code [from, to)}.
+     *
+     * @param action the action or {@code null} for any action
+     * @param username the username or {@code null} for any username
+     * @param ip the ip or {@code null} for any ip
+     * @param level the level or {@link #ANY_LEVEL}
+     * @param from the start time in milliseconds (inclusive)
+     * @param to the end time in milliseconds (exclusive)
+     * @return
+     */
+    public long count(String action, String username, String ip, int level, long from, long to) {
+        long[] counts = counts(from, to);
+        long count = 0;
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] > 0 && matches(keys.get(id), action, username, ip, level)) {
+                count += counts[id];
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the kinds of events with the biggest counts (descending), in the buckets that intersect {@code [from, to)}.
+     * The filter parameters are like in {@link #count(String, String, String, int, long, long)}.
+     *
+     * @param n the maximum number of results
+     * @param action
+     * @param username
+     * @param ip
+     * @param level
+     * @param from
+     * @param to
+     * @return
+     */
+    public List<Count> top(int n, String action, String username, String ip, int level, long from, long to) {
+        if (n <= 0) {
+            return Collections.emptyList();
+        }
+
+        long[] counts = counts(from, to);
+        PriorityQueue<Count> top = new PriorityQueue<>(n + 1, COUNT_ORDER);
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] == 0 || (top.size() == n && counts[id] <= top.peek().count)) {
+                continue;
+            }
+
+            EventKey key = keys.get(id);
+            if (matches(key, action, username, ip, level)) {
+                top.offer(new Count(key, counts[id]));
+                if (top.size() > n) {
+                    top.poll();
+                }
+            }
+        }
+
+        List<Count> result = new ArrayList<>(top);
+        Collections.sort(result, Collections.reverseOrder(COUNT_ORDER));
+
+        return result;
+    }
+
+    /**
+     * Returns the number of kinds of events counted separately (without {@link #OTHER}).
+     *
+     * @return
+     */
+    public int getKeyCount() {
+        return ids.size();
+    }
+
+    public Auditor getAuditor() {
+        return auditor;
+    }
+
+    private void count(AuditEvent event) {
+        Bucket bucket = bucket(event.getTimestamp() / bucketSize);
+        if (bucket != null) {
+            increment(bucket, event);
+        }
+    }
+
+    private void increment(Bucket bucket, AuditEvent event) {
+        EventKey probe = this.probe.get().set(event);
+        Integer id = ids.get(probe);
+        if (id != null) {
+            bucket.increment(id);
+        } else if (full) {
+            bucket.increment(OTHER_ID);
+        } else {
+            intern(probe, bucket);
+        }
+    }
+
+    /**
+     * Intern the key and count the event. The new key is counted before its id is published
+     * (under the lock of reclaim), so a concurrent reclaim cannot release it before its first count.
+     */
+    private void intern(EventKey probe, Bucket bucket) {
+        synchronized (ids) {
+            Integer id = ids.get(probe);
+            if (id != null) {
+                bucket.increment(id);
+                return;
+            }
+
+            Integer free = freeIds.poll();
+            int newId;
+            if (free != null) {
+                newId = free;
+            } else if (nextId < maxKeys) {
+                newId = nextId++;
+            } else {
+                full = true;
+                bucket.increment(OTHER_ID);
+                return;
+            }
+
+            EventKey key = probe.copy();
+            keys.set(newId, key);
+            bucket.increment(newId);
+            ids.put(key, newId);
+        }
+    }
+
+    /**
+     * Returns the bucket of the given time slot or {@code null} if the slot is too old.
+     * A bucket is replaced (with a new one) when its slot is reused.
+     */
+    private Bucket bucket(long slot) {
+        int index = (int) (slot % buckets.length());
+        while (true) {
+            Bucket bucket = buckets.get(index);
+            if (bucket != null && bucket.slot >= slot) {
+                return (bucket.slot == slot) ? bucket : null;
+            }
+
+            Bucket newBucket = new Bucket(slot, maxKeys);
+            if (buckets.compareAndSet(index, bucket, newBucket)) {
+                if (full || hasReleasedIds()) {
+                    reclaimKeys();
+                }
+
+                return newBucket;
+            }
+        }
+    }
+
+    private boolean hasReleasedIds() {
+        synchronized (ids) {
+            return !releasedIds.isEmpty();
+        }
+    }
+
+    /**
+     * Release the ids of the keys without counts in the kept buckets.
+     * A released id is reused only after a next reclaim finds it still without counts, so the late
+     * increments (from a thread that found the id just before its release) are not counted for a new key.
+     */
+    private void reclaimKeys() {
+        if (!reclaiming.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            synchronized (ids) {
+                long[] counts = counts(Long.MIN_VALUE, Long.MAX_VALUE);
+                Iterator<Integer> it = releasedIds.iterator();
+                while (it.hasNext()) {
+                    Integer id = it.next();
+                    if (counts[id] == 0) {
+                        freeIds.add(id);
+                        it.remove();
+                    }
+                }
+
+                for (int id = OTHER_ID + 1; id < nextId; id++) {
+                    EventKey key = keys.get(id);
+                    if (key != null && counts[id] == 0) {
+                        ids.remove(key);
+                        keys.set(id, null);
+                        releasedIds.add(id);
+                    }
+                }
+                full = freeIds.isEmpty() && nextId == maxKeys;
+            }
+        } finally {
+            reclaiming.set(false);
+        }
+    }
+
+    /**
+     * Returns the counts per key id, in the buckets that intersect {@code [from, to)}.
+     */
+    private long[] counts(long from, long to) {
+        long firstSlot = Math.floorDiv(from, bucketSize);
+        long lastSlot = Math.floorDiv(to - 1, bucketSize);
+        long[] counts = new long[maxKeys];
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.slot >= firstSlot && bucket.slot <= lastSlot) {
+                bucket.addTo(counts);
+            }
+        }
+
+        return counts;
+    }
+
+    private static boolean matches(EventKey key, String action, String username, String ip, int level) {
+        return key != null
+            && (action == null || action.equals(key.getAction()))
+            && (username == null || username.equals(key.getUsername()))
+            && (ip == null || ip.equals(key.getIp()))
+            && (level == ANY_LEVEL || level == key.getLevel());
+    }
+
+    private static final Comparator<Count> COUNT_ORDER = new Comparator<Count>() {
+
+        @Override
+        public int compare(Count a, Count b) {
+            return Long.compare(a.count, b.count);
+        }
+
+    };
+
+    /**
+     * The counts of one time slot: for each stripe, a counter per key id.
+     */
+    private static class Bucket {
+
+        private final long slot;
+        private final int maxKeys;
+        private final AtomicLongArray counts;
+
+        private Bucket(long slot, int maxKeys) {
+            this.slot = slot;
+            this.maxKeys = maxKeys;
+            counts = new AtomicLongArray(STRIPES * maxKeys);
+        }
+
+        private void increment(int id) {
+            int stripe = StripedCounter.stripe() & (STRIPES - 1);
+            counts.getAndIncrement(stripe * maxKeys + id);
+        }
+
+        private void addTo(long[] sums) {
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                int offset = stripe * maxKeys;
+                for (int id = 0; id < maxKeys; id++) {
+                    sums[id] += counts.get(offset + id);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * The count of a kind of events.
+     */
+    public static class Count {
+
+        private final String action;
+        private final String username;
+        private final String ip;
+        private final int level;
+        private final long count;
+
+        private Count(EventKey key, long count) {
+            action = key.getAction();
+            username = key.getUsername();
+            ip = key.getIp();
+            level = key.getLevel();
+            this.count = count;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getIp() {
+            return ip;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return "Count{" +
+                "action='" + action + '\'' +
+                ", username='" + username + '\'' +
+                ", ip='" + ip + '\'' +
+                ", level=" + level +
+                ", count=" + count +
+                '}';
+        }
+
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link AuditEventFormatter} that can write the audit event straight into a destination
+ * supplied by the caller, without creating an intermediate {@link String}.
+ * The auditors from this library use these methods when the formatter supports them.
+ *
+ * @author Decebal Suiu
+ */
+public interface AppendableAuditEventFormatter extends AuditEventFormatter {
+
+    /**
+     * Append the representation of an audit event (without line separator) to {@code out}.
+     *
+     * @param event
+     * @param out
+     * @throws IOException
+     */
+    void formatTo(AuditEvent event, Appendable out) throws IOException;
+
+    /**
+     * Write the UTF-8 encoded representation of an audit event (without line separator) to {@code buffer},
+     * starting from the current position.
+     *
+     * @param event
+     * @param buffer
+     * @throws BufferOverflowException if the remaining space in buffer is not enough
+     */
+    void formatTo(AuditEvent event, ByteBuffer buffer);
+
+}
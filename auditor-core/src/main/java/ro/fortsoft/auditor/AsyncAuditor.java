@@ -0,0 +1,296 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decorator that moves the work of an {@link Auditor} on its own thread.
+ * The events are added to a bounded lock-free ring buffer and a worker thread passes them
+ * to the wrapped auditor. When the buffer is full, the {@link OverflowPolicy} decides what happens
+ * with the new event (the default is {@link OverflowPolicy#BLOCK}).
+ *
+ * A failure of the wrapped auditor (an exception or an {@link Error}, for example a {@link StackOverflowError}
+ * in an appender) doesn't stop the worker; it's counted and exposed with
+ * {@link #getFailureCount()}, {@link #getLastFailure()} and {@link #isHealthy()}.
+ * The events are passed to the wrapped auditor on the worker thread, so an auditor that reads
+ * thread bound data (for example from log4j's {@code MDC}) must receive it in the event.
+ *
+ * The future returned by {@link #auditAsync(AuditEvent)} is completed after the wrapped auditor
+ * processed the event, or completed exceptionally with the error of the wrapped auditor
+ * (an error for any event of the same batch fails the futures of that batch).
+ *
+ * Call {@link #close()} on shutdown application, to pass the buffered events and stop the worker thread.
+ * The wrapped auditor is not closed.
+ *
+ * @author Decebal Suiu
+ */
+public class AsyncAuditor implements Auditor {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /**
+     * The worker is considered stalled if it doesn't process any event in this interval (milliseconds),
+     * while events are waiting in buffer.
+     */
+    public static final long STALL_TIMEOUT = 5000;
+
+    private static final int BATCH_SIZE = 256;
+
+    private final Auditor auditor;
+    private final RingBuffer<AuditEvent> buffer;
+    private final OverflowPolicy overflowPolicy;
+    private final ExecutorService executorService;
+    private final StripedCounter enqueued = new StripedCounter();
+    private final Acknowledgements acknowledgements = new Acknowledgements();
+
+    private volatile boolean closed;
+    private volatile long processedCount;
+    private volatile long failureCount;
+    private volatile Throwable lastFailure;
+    private volatile boolean lastCallFailed;
+    private volatile long lastProgressTime = System.currentTimeMillis();
+    private volatile long lag;
+
+    public AsyncAuditor(Auditor auditor) {
+        this(auditor, DEFAULT_BUFFER_SIZE, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param auditor the wrapped auditor
+     * @param bufferSize the number of events that can wait (rounded up to a power of two)
+     * @param overflowPolicy what happens when the buffer is full
+     */
+    public AsyncAuditor(Auditor auditor, int bufferSize, OverflowPolicy overflowPolicy) {
+        this.auditor = auditor;
+        buffer = new RingBuffer<>(bufferSize);
+        this.overflowPolicy = overflowPolicy;
+
+        executorService = Executors.newSingleThreadExecutor(new DaemonThreadFactory("async-auditor"));
+        executorService.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                processEvents();
+            }
+
+        });
+    }
+
+    /**
+     * Add the audit event to the buffer.
+     * If the auditor is closed the event is dropped.
+     *
+     * @param event
+     */
+    @Override
+    public void audit(AuditEvent event) {
+        if (closed) {
+            return;
+        }
+
+        if (buffer.put(event, overflowPolicy)) {
+            enqueued.increment();
+        }
+    }
+
+    /**
+     * Add the audit event to the buffer and return a future completed when the wrapped auditor processed it.
+     * The future fails if the event is dropped by the {@link OverflowPolicy} or if the auditor is closed.
+     *
+     * @param event
+     * @return
+     */
+    @Override
+    public CompletableFuture<Void> auditAsync(AuditEvent event) {
+        if (closed) {
+            return Acknowledgements.failed(new AuditException("The auditor is closed"));
+        }
+
+        // the future is registered before the event is published, so it gets the result of the batch with the event
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!buffer.put(event, overflowPolicy, acknowledgements, future)) {
+            return Acknowledgements.failed(new AuditException("The audit event was dropped"));
+        }
+
+        enqueued.increment();
+        if (closed) {
+            // close() may have failed the waiting futures before this one was registered
+            future.completeExceptionally(new AuditException("The auditor is closed"));
+        }
+
+        return future;
+    }
+
+    /**
+     * Add the audit events to the buffer in bulk.
+     *
+     * @param events
+     */
+    @Override
+    public void auditAll(Collection<AuditEvent> events) {
+        if (closed || events.isEmpty()) {
+            return;
+        }
+
+        AuditEvent[] array = events.toArray(new AuditEvent[events.size()]);
+        enqueued.add(buffer.putAll(array, 0, array.length, overflowPolicy));
+    }
+
+    public Auditor getAuditor() {
+        return auditor;
+    }
+
+    /**
+     * Returns the number of events added to the buffer.
+     *
+     * @return
+     */
+    public long getEnqueuedCount() {
+        return enqueued.sum();
+    }
+
+    /**
+     * Returns the number of events passed to the wrapped auditor (with or without success).
+     *
+     * @return
+     */
+    public long getProcessedCount() {
+        return processedCount;
+    }
+
+    /**
+     * Returns the number of events dropped by the {@link OverflowPolicy}.
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return buffer.getDroppedCount();
+    }
+
+    /**
+     * Returns the number of events waiting in the buffer.
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return buffer.size();
+    }
+
+    /**
+     * Returns the number of events rejected by the wrapped auditor with an exception.
+     *
+     * @return
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    public Throwable getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Returns the time in milliseconds between the creation of the last processed event and its processing.
+     *
+     * @return
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    /**
+     * Returns {@code false} if the last call of the wrapped auditor failed or if the worker is stalled
+     * (see {@link #STALL_TIMEOUT}).
+     *
+     * @return
+     */
+    public boolean isHealthy() {
+        boolean stalled = !buffer.isEmpty() && System.currentTimeMillis() - lastProgressTime > STALL_TIMEOUT;
+
+        return !lastCallFailed && !stalled;
+    }
+
+    /**
+     * Pass all events from the buffer to the wrapped auditor and stop the worker thread.
+     */
+    public void close() {
+        closed = true;
+        // the producers waiting for free space are released, the buffered events are still processed
+        buffer.close();
+        buffer.wakeUpConsumer();
+        executorService.shutdown();
+        try {
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        acknowledgements.failAll(new AuditException("The auditor is closed"));
+    }
+
+    private void processEvents() {
+        AuditEvent[] batch = new AuditEvent[Math.min(BATCH_SIZE, buffer.capacity())];
+        while (true) {
+            int count = buffer.drainTo(batch);
+            if (count > 0) {
+                long taken = buffer.headPosition();
+                Throwable error = null;
+                for (int i = 0; i < count; i++) {
+                    Throwable failure = process(batch[i]);
+                    if (failure != null) {
+                        error = failure;
+                    }
+                }
+                Arrays.fill(batch, 0, count, null);
+                acknowledgements.complete(taken, error);
+            } else if (closed) {
+                // a last look, for the events added while the auditor was closing
+                if (buffer.isEmpty()) {
+                    break;
+                }
+            } else {
+                buffer.awaitNotEmpty(100, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private Throwable process(AuditEvent event) {
+        Throwable failure = null;
+        try {
+            auditor.audit(event);
+            lastCallFailed = false;
+        } catch (Throwable e) {
+            // an Error too, the worker must survive (the producers may wait for it)
+            failureCount++; // single writer (the worker thread)
+            lastFailure = e;
+            lastCallFailed = true;
+            failure = e;
+        }
+
+        long now = System.currentTimeMillis();
+        lastProgressTime = now;
+        lag = now - event.getTimestamp();
+        processedCount++;
+
+        return failure;
+    }
+
+}
@@ -17,10 +17,11 @@ package ro.fortsoft.auditor;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Async File based {@link Auditor}.
@@ -29,51 +30,377 @@ import java.util.concurrent.Executors;
  * If a formatter is not specified then {@link SimpleAuditEventFormatter} is used.
  * The class is thread safe.
  *
- * Internally this class uses a {@link BlockingQueue} to store the audit events.
- * In {@link #audit(AuditEvent)} method, the audit event is added to the queue.
- * A thread takes the audit events from the queue and writes them to the file.
+ * Internally this class uses a lock-free ring buffer to store the audit events.
+ * In {@link #audit(AuditEvent)} method, the audit event is added to the buffer.
+ * A thread of an {@link AuditorScheduler} (shared by many auditors) takes the audit events
+ * from the buffer in batches, writes them to the file and flushes the file once per batch.
+ * When the buffer is full, the {@link OverflowPolicy} decides what happens with the new event
+ * (the default is {@link OverflowPolicy#BLOCK}).
+ * With {@link OverflowPolicy#SPILL} the overflow events are written to a journal on disk
+ * ({@code <file>.spill}) and the writer thread replays them in order when it catches up.
+ * An event that cannot be formatted is skipped and counted (see {@link #getFailureCount()}),
+ * the other events of its batch are written.
+ *
+ * Call {@link #close()} on shutdown application, to write the events from the buffer.
  *
  * @author Decebal Suiu
  */
-public class AsyncFileAuditor extends FileAuditor implements Runnable {
+public class AsyncFileAuditor extends FileAuditor {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private static final int BATCH_SIZE = 256;
+
+    private final RingBuffer<AuditEvent> buffer;
+    private final OverflowPolicy overflowPolicy;
+    private final AuditorScheduler scheduler;
+    private final AuditorScheduler.Task task;
+    private final AuditEvent[] batch;
+    private final SpillJournal journal;
+    private final Acknowledgements acknowledgements = new Acknowledgements();
+    private final Acknowledgements spilledAcknowledgements = new Acknowledgements();
 
-    private final BlockingQueue<AuditEvent> queue;
+    private volatile boolean closed;
+    private volatile long processed;
+    private volatile long failureCount;
+    private volatile RuntimeException lastFailure;
+    private RuntimeException batchFailure; // guarded by this (the writer's lock)
 
     public AsyncFileAuditor(File file) throws IOException {
         this(file, SimpleAuditEventFormatter.get());
     }
 
     public AsyncFileAuditor(File file, AuditEventFormatter formatter) throws IOException {
-        super(file, formatter);
+        this(file, formatter, DEFAULT_BUFFER_SIZE, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param file
+     * @param formatter
+     * @param bufferSize the number of events that can wait to be written (rounded up to a power of two)
+     * @param overflowPolicy what happens when the buffer is full
+     * @throws IOException
+     */
+    public AsyncFileAuditor(File file, AuditEventFormatter formatter, int bufferSize, OverflowPolicy overflowPolicy) throws IOException {
+        this(file, formatter, bufferSize, overflowPolicy, Durability.NONE, 0);
+    }
+
+    /**
+     * @param file
+     * @param formatter
+     * @param bufferSize the number of events that can wait to be written (rounded up to a power of two)
+     * @param overflowPolicy what happens when the buffer is full
+     * @param durability with {@link Durability#GROUP_COMMIT} the writer thread forces the file once per batch
+     * @param syncInterval the interval in milliseconds between two fsync, for {@link Durability#INTERVAL}
+     * @throws IOException
+     */
+    public AsyncFileAuditor(File file, AuditEventFormatter formatter, int bufferSize, OverflowPolicy overflowPolicy,
+                            Durability durability, long syncInterval) throws IOException {
+        this(file, formatter, bufferSize, overflowPolicy, durability, syncInterval, AuditorScheduler.getDefault());
+    }
+
+    /**
+     * @param file
+     * @param formatter
+     * @param bufferSize the number of events that can wait to be written (rounded up to a power of two)
+     * @param overflowPolicy what happens when the buffer is full
+     * @param durability with {@link Durability#GROUP_COMMIT} the writer thread forces the file once per batch
+     * @param syncInterval the interval in milliseconds between two fsync, for {@link Durability#INTERVAL}
+     * @param scheduler the threads that write the events
+     * @throws IOException
+     */
+    public AsyncFileAuditor(File file, AuditEventFormatter formatter, int bufferSize, OverflowPolicy overflowPolicy,
+                            Durability durability, long syncInterval, AuditorScheduler scheduler) throws IOException {
+        super(file, formatter, durability, syncInterval);
+
+        buffer = new RingBuffer<>(bufferSize);
+        this.overflowPolicy = overflowPolicy;
+        if (overflowPolicy == OverflowPolicy.SPILL) {
+            journal = new SpillJournal(new File(file.getPath() + ".spill"), formatter);
+        } else {
+            journal = null;
+        }
+
+        batch = new AuditEvent[Math.min(BATCH_SIZE, buffer.capacity())];
+        this.scheduler = scheduler;
+        task = new AuditorScheduler.Task() {
 
-        queue = new ArrayBlockingQueue<>(1024);
+            @Override
+            boolean drain() {
+                return AsyncFileAuditor.this.drain();
+            }
+
+            @Override
+            boolean hasWork() {
+                return AsyncFileAuditor.this.hasWork();
+            }
 
-        ExecutorService executorService = Executors.newSingleThreadExecutor();
-        executorService.submit(this);
+        };
     }
 
     /**
-     * Write the audit event to the queue.
+     * Write the audit event to the buffer.
+     * If the auditor is closed the event is dropped.
      *
      * @param event
      */
     @Override
     public void audit(AuditEvent event) {
-        try {
-            queue.put(event);
-        } catch (InterruptedException e) {
-            e.printStackTrace(); // ?!
+        if (closed) {
+            return;
+        }
+
+        if (journal != null) {
+            // while the journal is active, all events go to journal (to keep the order)
+            if (journal.isActive() || !buffer.offer(event)) {
+                journal.append(event);
+            }
+        } else {
+            buffer.put(event, overflowPolicy);
+        }
+        scheduler.schedule(task);
+    }
+
+    /**
+     * Add the audit events to the buffer in bulk (see {@link #audit(AuditEvent)}).
+     *
+     * @param events
+     */
+    @Override
+    public void auditAll(Collection<AuditEvent> events) {
+        if (closed || events.isEmpty()) {
+            return;
+        }
+
+        AuditEvent[] array = events.toArray(new AuditEvent[events.size()]);
+        if (journal != null) {
+            int count = journal.isActive() ? 0 : buffer.offer(array, 0, array.length);
+            if (count < array.length) {
+                journal.appendAll(array, count, array.length - count);
+            }
+        } else {
+            int offset = 0;
+            while (offset < array.length) {
+                int count = buffer.offer(array, offset, array.length - offset);
+                // the writer must be scheduled before a producer waits for free space
+                scheduler.schedule(task);
+                if (count == 0) {
+                    buffer.put(array[offset], overflowPolicy);
+                    count = 1;
+                }
+                offset += count;
+            }
+        }
+        scheduler.schedule(task);
+    }
+
+    /**
+     * Add the audit event to the buffer and return a future completed when the event is written
+     * and forced to disk (by a scheduler thread, with one fsync for a batch).
+     * The future fails if the event is dropped by the {@link OverflowPolicy} (with {@link OverflowPolicy#DROP_OLDEST},
+     * also when it's dropped later to make room for others) or if the auditor is closed.
+     *
+     * @param event
+     * @return
+     */
+    @Override
+    public CompletableFuture<Void> auditAsync(AuditEvent event) {
+        if (closed) {
+            return Acknowledgements.failed(new AuditException("The auditor is closed"));
+        }
+
+        // the future is registered before the event is published in buffer, so it cannot be missed by the writer
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (journal != null && (journal.isActive() || !buffer.offer(event, acknowledgements, future))) {
+            try {
+                spilledAcknowledgements.add(journal.append(event), future);
+            } catch (AuditException e) {
+                return Acknowledgements.failed(e);
+            }
+        } else if (journal == null && !buffer.put(event, overflowPolicy, acknowledgements, future)) {
+            return Acknowledgements.failed(new AuditException("The audit event was dropped"));
+        }
+        scheduler.schedule(task);
+
+        if (closed) {
+            // close() may have failed the waiting futures before this one was registered
+            future.completeExceptionally(new AuditException("The auditor is closed"));
+        }
+
+        return future;
+    }
+
+    /**
+     * Write one batch of events (or the spill journal) and complete the futures of the written events.
+     * It's called by a scheduler thread.
+     *
+     * @return {@code true} if more work is waiting
+     */
+    private boolean drain() {
+        int count = buffer.drainTo(batch);
+        if (count > 0) {
+            long taken = buffer.headPosition();
+            long sequence = writeBatch(batch, count);
+            Arrays.fill(batch, 0, count, null);
+            RuntimeException failure = takeBatchFailure();
+            if (getDurability() == Durability.GROUP_COMMIT || !acknowledgements.isEmpty()) {
+                AuditException error = syncBatch(sequence);
+                if (error == null && failure != null) {
+                    error = new AuditException("Cannot write an audit event of the batch", failure);
+                }
+                acknowledgements.complete(taken, error);
+            }
+            processed = taken;
+        } else if (isSpilling()) {
+            if (!replayJournal() && closed) {
+                // the journal remains on disk and it's replayed on next start
+                return false;
+            }
+        } else if (!spilledAcknowledgements.isEmpty()) {
+            // the futures added after the replay of their events (a spilled event is appended before its future)
+            AuditException error = syncBatch(Long.MAX_VALUE);
+            spilledAcknowledgements.complete(journal.getReplayedCount(), error);
         }
+
+        return hasWork();
+    }
+
+    private boolean hasWork() {
+        return !buffer.isEmpty() || isSpilling() || !acknowledgements.isEmpty() || !spilledAcknowledgements.isEmpty();
+    }
+
+    /**
+     * Wait until all the events added before this call (by any thread) are written and forced to disk.
+     */
+    @Override
+    public void awaitDurable() {
+        long added = buffer.tailPosition();
+        while ((processed < added || (journal != null && journal.isActive())) && !closed) {
+            LockSupport.parkNanos(100000);
+        }
+
+        super.awaitDurable();
+    }
+
+    /**
+     * Returns the number of events waiting in the buffer.
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return buffer.size();
+    }
+
+    /**
+     * Returns the number of events dropped by the {@link OverflowPolicy} (or rejected while the auditor was closing).
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return buffer.getDroppedCount();
+    }
+
+    /**
+     * Returns the number of events that couldn't be written (for example the formatter failed).
+     *
+     * @return
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    @Override
+    protected void onWriteFailure(AuditEvent event, RuntimeException e) {
+        failureCount++; // under the writer's lock
+        lastFailure = e;
+        batchFailure = e;
     }
 
+    /**
+     * Write all events from the buffer (on the caller thread) and close the file.
+     */
     @Override
-    public void run() {
-        while (true) {
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        // wait for a running batch, then the scheduler never runs this auditor again
+        task.stop();
+        // the waiting producers are released and the next events are rejected
+        buffer.close();
+        while (drain()) {
+            // write all (the buffer is not empty while a producer publishes a claimed slot)
+        }
+        AuditException error = new AuditException("The auditor is closed");
+        acknowledgements.failAll(error);
+        spilledAcknowledgements.failAll(error);
+
+        if (journal != null) {
             try {
-                writer.println(formatter.formatEvent(queue.take()));
-            } catch (InterruptedException e) {
-                e.printStackTrace(); // ?!
+                journal.close();
+            } catch (IOException e) {
+                // close anyway
+            }
+        }
+        super.close();
+    }
+
+    /**
+     * Returns {@code true} if events are waiting in the spill journal.
+     *
+     * @return
+     */
+    public boolean isSpilling() {
+        return (journal != null) && journal.isActive();
+    }
+
+    private synchronized RuntimeException takeBatchFailure() {
+        RuntimeException failure = batchFailure;
+        batchFailure = null;
+
+        return failure;
+    }
+
+    private boolean replayJournal() {
+        try {
+            long sequence = replay(journal);
+            if (getDurability() == Durability.GROUP_COMMIT || !spilledAcknowledgements.isEmpty()) {
+                spilledAcknowledgements.complete(journal.getReplayedCount(), syncBatch(sequence));
             }
+
+            return true;
+        } catch (IOException e) {
+            // retry later, the events remain in journal
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+
+            return false;
+        }
+    }
+
+    /**
+     * Force the written events to disk.
+     *
+     * @param sequence the sequence of the last write or {@link Long#MAX_VALUE} for all the writes
+     * @return the error or {@code null}
+     */
+    private AuditException syncBatch(long sequence) {
+        try {
+            if (sequence == Long.MAX_VALUE) {
+                super.awaitDurable();
+            } else {
+                awaitDurable(sequence);
+            }
+
+            return null;
+        } catch (AuditException e) {
+            // keep the scheduler thread alive, the error goes to the futures and to the callers of awaitDurable()
+            return e;
         }
     }
 
@@ -22,6 +22,10 @@ import java.util.Map;
 /**
  * This interface provides information about an auditing event.
  *
+ * The event is cheap to create: the timestamp is stored as a primitive (milliseconds since epoch)
+ * and the context map is allocated only on first use.
+ * For allocation sensitive code, see {@link #reusable(String)}.
+ *
  * @author Decebal Suiu
  */
 public class AuditEvent {
@@ -34,13 +38,23 @@ public class AuditEvent {
 
     private int level;
     private String username;
-    private Date date;
+    private long timestamp;
     private String action;
     private String session;
     private String ip;
     private Map<String, Object> context;
+    private HashMap<String, Object> ownContext;
     private String errorMessage;
 
+    private static final ThreadLocal<AuditEvent> reusableEvent = new ThreadLocal<AuditEvent>() {
+
+        @Override
+        protected AuditEvent initialValue() {
+            return new AuditEvent(null);
+        }
+
+    };
+
     public AuditEvent(String action) {
         this(action, INFO);
     }
@@ -49,8 +63,44 @@ public class AuditEvent {
         this.action = action;
         this.level = level;
 
-        date = new Date();
-        context = new HashMap<String, Object>();
+        timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the event of the current thread, reset for a new action.
+     * The instance is reused by all next calls from the same thread so it can be used only with auditors
+     * that consume the event inside {@link Auditor#audit(AuditEvent)} (for example {@link FileAuditor},
+     * {@link ThreadLocalFileAuditor} or {@link ConsoleAuditor}), not with {@link AsyncFileAuditor}
+     * that keeps the event for later.
+     *
+     * @param action
+     * @return
+     */
+    public static AuditEvent reusable(String action) {
+        return reusableEvent.get().reset(action, INFO);
+    }
+
+    /**
+     * Clear all fields and set a new action and the current time, keeping the allocated context map.
+     *
+     * @param action
+     * @param level
+     * @return
+     */
+    public AuditEvent reset(String action, int level) {
+        this.action = action;
+        this.level = level;
+        timestamp = System.currentTimeMillis();
+        username = null;
+        session = null;
+        ip = null;
+        errorMessage = null;
+        if (ownContext != null) {
+            ownContext.clear();
+        }
+        context = null;
+
+        return this;
     }
 
     public int getLevel() {
@@ -73,12 +123,32 @@ public class AuditEvent {
         return this;
     }
 
+    /**
+     * Returns the time of event in milliseconds since epoch.
+     *
+     * @return
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public AuditEvent setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+
+        return this;
+    }
+
+    /**
+     * Returns a new {@link Date} created from {@link #getTimestamp()}.
+     *
+     * @return
+     */
     public Date getDate() {
-        return date;
+        return new Date(timestamp);
     }
 
     public AuditEvent setDate(Date date) {
-        this.date = date;
+        timestamp = date.getTime();
 
         return this;
     }
@@ -113,10 +183,33 @@ public class AuditEvent {
         return this;
     }
 
+    /**
+     * Returns the context map, allocating it on first call.
+     * Use {@link #hasContext()} to check for context without allocation.
+     *
+     * @return
+     */
     public Map<String, Object> getContext() {
+        if (context == null) {
+            if (ownContext == null) {
+                ownContext = new HashMap<>();
+            }
+            context = ownContext;
+        }
+
         return context;
     }
 
+    public boolean hasContext() {
+        return (context != null) && !context.isEmpty();
+    }
+
+    public AuditEvent put(String key, Object value) {
+        getContext().put(key, value);
+
+        return this;
+    }
+
     public AuditEvent setContext(Map<String, Object> context) {
         this.context = context;
 
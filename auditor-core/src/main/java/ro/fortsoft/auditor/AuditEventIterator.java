@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the events of a query (see {@link AuditLogReader}).
+ * The events are decoded lazily, one block range at a time.
+ * An I/O error is reported as {@link AuditException}.
+ * Don't forget to close the iterator.
+ *
+ * @author Decebal Suiu
+ */
+public class AuditEventIterator implements Iterator<AuditEvent>, Closeable {
+
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final List<long[]> ranges;
+    private final long tailStart;
+    private final AuditQuery query;
+
+    private int rangeIndex;
+    private boolean tail;
+    private boolean tolerateTornRecord;
+    private BinaryAuditEventReader reader;
+    private AuditEvent next;
+    private boolean finished;
+
+    /**
+     * @param file
+     * @param ranges the positions {@code [start, end, unindexed]} of the blocks to read; a not indexed range ({@code 1})
+     *               can end with a torn record
+     * @param tailStart the position after the last indexed block or {@code -1} if there is no index
+     * @param query
+     * @throws IOException
+     */
+    AuditEventIterator(File file, List<long[]> ranges, long tailStart, AuditQuery query) throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "r");
+        channel = randomAccessFile.getChannel();
+        this.ranges = ranges;
+        this.tailStart = tailStart;
+        this.query = query;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !finished) {
+            try {
+                next = advance();
+            } catch (IOException e) {
+                throw new AuditException("Cannot read the audit file", e);
+            }
+            finished = (next == null);
+        }
+
+        return next != null;
+    }
+
+    @Override
+    public AuditEvent next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        AuditEvent event = next;
+        next = null;
+
+        return event;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        randomAccessFile.close();
+    }
+
+    private AuditEvent advance() throws IOException {
+        while (true) {
+            if (reader == null && !openNext()) {
+                return null;
+            }
+
+            AuditEvent event;
+            try {
+                event = reader.read();
+            } catch (EOFException e) {
+                if (!tolerateTornRecord) {
+                    throw e;
+                }
+                // the writer is in the middle of a record (or it stopped there)
+                event = null;
+            }
+
+            if (event == null) {
+                reader = null;
+            } else if (query.matches(event)) {
+                return event;
+            }
+        }
+    }
+
+    private boolean openNext() throws IOException {
+        if (rangeIndex < ranges.size()) {
+            long[] range = ranges.get(rangeIndex++);
+            reader = open(range[0], range[1] - range[0], false);
+            tolerateTornRecord = (range[2] != 0);
+
+            return true;
+        }
+
+        if (!tail) {
+            tail = true;
+            long start = (tailStart < 0) ? 0 : tailStart;
+            long length = channel.size() - start;
+            if (length > 0) {
+                reader = open(start, length, tailStart < 0);
+                tolerateTornRecord = true;
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private BinaryAuditEventReader open(long start, long length, boolean readHeader) throws IOException {
+        channel.position(start);
+        InputStream in = new BufferedInputStream(new LimitedInputStream(Channels.newInputStream(channel), length), 64 * 1024);
+
+        return new BinaryAuditEventReader(in, readHeader);
+    }
+
+}
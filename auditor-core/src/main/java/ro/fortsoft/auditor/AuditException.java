@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+/**
+ * Thrown when an {@link Auditor} cannot store an audit event (for example an I/O error).
+ *
+ * @author Decebal Suiu
+ */
+public class AuditException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public AuditException(String message) {
+        super(message);
+    }
+
+    public AuditException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public AuditException(Throwable cause) {
+        super(cause);
+    }
+
+}
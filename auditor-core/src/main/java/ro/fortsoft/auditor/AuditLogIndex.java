@@ -0,0 +1,230 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The sparse index of a binary audit file (a sidecar file with the {@code .idx} extension).
+ * There is one entry per block of events:
+ * {@code start(long) end(long) events(int) minTimestamp(long) maxTimestamp(long)}.
+ *
+ * The index is loaded in memory for queries, with a running maximum (from the first block) and
+ * a running minimum (from the last block) of timestamps, so the blocks of a time range are found
+ * with a binary search even if the timestamps are not perfectly ordered in file.
+ *
+ * @author Decebal Suiu
+ */
+final class AuditLogIndex {
+
+    static final String EXTENSION = ".idx";
+
+    private static final int ENTRY_SIZE = 8 + 8 + 4 + 8 + 8;
+
+    final long[] starts;
+    final long[] ends;
+    final long[] minTimestamps;
+    final long[] maxTimestamps;
+    final int size;
+
+    private final long[] runningMax;
+    private final long[] runningMin;
+
+    private AuditLogIndex(int capacity) {
+        starts = new long[capacity];
+        ends = new long[capacity];
+        minTimestamps = new long[capacity];
+        maxTimestamps = new long[capacity];
+        runningMax = new long[capacity];
+        runningMin = new long[capacity];
+        size = capacity;
+    }
+
+    static File indexFile(File file) {
+        return new File(file.getPath() + EXTENSION);
+    }
+
+    /**
+     * Load the index of a binary audit file. A torn last entry is ignored.
+     * If the index file is missing then the index is empty.
+     *
+     * @param file the binary audit file
+     * @return
+     * @throws IOException
+     */
+    static AuditLogIndex load(File file) throws IOException {
+        File indexFile = indexFile(file);
+        long fileLength = file.length();
+        int capacity = indexFile.exists() ? (int) (indexFile.length() / ENTRY_SIZE) : 0;
+        AuditLogIndex index = new AuditLogIndex(capacity);
+        if (capacity == 0) {
+            return index;
+        }
+
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            for (int i = 0; i < capacity; i++) {
+                long start = in.readLong();
+                long end = in.readLong();
+                in.readInt();
+                long min = in.readLong();
+                long max = in.readLong();
+                if (end > fileLength) {
+                    // the index was written before the data reached the disk
+                    break;
+                }
+                index.starts[count] = start;
+                index.ends[count] = end;
+                index.minTimestamps[count] = min;
+                index.maxTimestamps[count] = max;
+                count++;
+            }
+        }
+
+        return index.trim(count);
+    }
+
+    /**
+     * Returns the position after the last indexed block (or {@code -1} if the index is empty).
+     *
+     * @return
+     */
+    long indexedEnd() {
+        return (size == 0) ? -1 : ends[size - 1];
+    }
+
+    /**
+     * Returns the [start, end) positions, before the last indexed block, that are not covered by blocks.
+     * A gap holds a block that was not indexed because the writer stopped (a crash) before
+     * the index entry was written, and maybe a torn record at its end.
+     *
+     * @return
+     */
+    List<long[]> gaps() {
+        List<long[]> gaps = new ArrayList<>();
+        long previousEnd = BinaryFormat.HEADER_SIZE;
+        for (int i = 0; i < size; i++) {
+            if (starts[i] > previousEnd) {
+                gaps.add(new long[] { previousEnd, starts[i] });
+            }
+            previousEnd = ends[i];
+        }
+
+        return gaps;
+    }
+
+    /**
+     * Returns the first block that can contain timestamps {@code >= from}.
+     *
+     * @param from
+     * @return
+     */
+    int firstBlock(long from) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (runningMax[middle] < from) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns {@code true} if no block starting with {@code block} contains timestamps {@code < to}.
+     *
+     * @param block
+     * @param to
+     * @return
+     */
+    boolean isAfter(int block, long to) {
+        return runningMin[block] >= to;
+    }
+
+    private AuditLogIndex trim(int count) {
+        AuditLogIndex index = (count == size) ? this : copy(count);
+        for (int i = 0; i < count; i++) {
+            index.runningMax[i] = (i == 0) ? index.maxTimestamps[i] : Math.max(index.runningMax[i - 1], index.maxTimestamps[i]);
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            index.runningMin[i] = (i == count - 1) ? index.minTimestamps[i] : Math.min(index.runningMin[i + 1], index.minTimestamps[i]);
+        }
+
+        return index;
+    }
+
+    private AuditLogIndex copy(int count) {
+        AuditLogIndex index = new AuditLogIndex(count);
+        System.arraycopy(starts, 0, index.starts, 0, count);
+        System.arraycopy(ends, 0, index.ends, 0, count);
+        System.arraycopy(minTimestamps, 0, index.minTimestamps, 0, count);
+        System.arraycopy(maxTimestamps, 0, index.maxTimestamps, 0, count);
+
+        return index;
+    }
+
+    /**
+     * Appends entries to the index file.
+     */
+    static class Writer {
+
+        private final DataOutputStream out;
+
+        Writer(File file) throws IOException {
+            File indexFile = indexFile(file);
+            // drop a torn last entry (if any) before appending
+            long validLength = indexFile.length() - indexFile.length() % ENTRY_SIZE;
+            if (validLength != indexFile.length()) {
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "rw")) {
+                    randomAccessFile.setLength(validLength);
+                }
+            }
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+        }
+
+        void write(long start, long end, int events, long minTimestamp, long maxTimestamp) throws IOException {
+            out.writeLong(start);
+            out.writeLong(end);
+            out.writeInt(events);
+            out.writeLong(minTimestamp);
+            out.writeLong(maxTimestamp);
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        void close() throws IOException {
+            out.close();
+        }
+
+    }
+
+}
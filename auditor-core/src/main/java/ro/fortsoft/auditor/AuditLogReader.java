@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads back the events of a file written by {@link BinaryFileAuditor}.
+ * A time range query uses the sparse index of file to read only the blocks that can contain
+ * matching events, so the cost of a query follows the size of the result, not the size of the file.
+ * The events after the last indexed block (the block in progress) are always scanned, like the
+ * not indexed blocks between indexed blocks (left by a crash of the writer).
+ *
+ * Example:
+ * <pre>
+ * AuditQuery query = new AuditQuery().setFrom(from).setTo(to).setUsername("decebal");
+ * try (AuditEventIterator it = new AuditLogReader(file).query(query)) {
+ *     while (it.hasNext()) {
+ *         AuditEvent event = it.next();
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * @author Decebal Suiu
+ */
+public class AuditLogReader {
+
+    private final File file;
+
+    public AuditLogReader(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns all events from file.
+     *
+     * @return
+     * @throws IOException
+     */
+    public AuditEventIterator read() throws IOException {
+        return query(new AuditQuery());
+    }
+
+    /**
+     * Returns the events that match the query, in file order.
+     *
+     * @param query
+     * @return
+     * @throws IOException
+     */
+    public AuditEventIterator query(AuditQuery query) throws IOException {
+        AuditLogIndex index = AuditLogIndex.load(file);
+
+        List<long[]> ranges = new ArrayList<>();
+        for (int i = index.firstBlock(query.getFrom()); i < index.size && !index.isAfter(i, query.getTo()); i++) {
+            if (index.maxTimestamps[i] < query.getFrom() || index.minTimestamps[i] >= query.getTo()) {
+                continue;
+            }
+
+            long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (last != null && last[1] == index.starts[i]) {
+                // adjacent blocks are read in one pass
+                last[1] = index.ends[i];
+            } else {
+                ranges.add(new long[] { index.starts[i], index.ends[i], 0 });
+            }
+        }
+
+        // the not indexed blocks have no timestamp range, so they are always scanned
+        List<long[]> gaps = index.gaps();
+        if (!gaps.isEmpty()) {
+            for (long[] gap : gaps) {
+                ranges.add(new long[] { gap[0], gap[1], 1 });
+            }
+            Collections.sort(ranges, new Comparator<long[]>() {
+
+                @Override
+                public int compare(long[] a, long[] b) {
+                    return Long.compare(a[0], b[0]);
+                }
+
+            });
+        }
+
+        return new AuditEventIterator(file, ranges, index.indexedEnd(), query);
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.util.Date;
+
+/**
+ * The criteria of a query over audit events (see {@link AuditLogReader#query(AuditQuery)}).
+ * The time range is {@code [from, to)}. A criterion that is not set matches all events.
+ *
+ * @author Decebal Suiu
+ */
+public class AuditQuery {
+
+    private long from = Long.MIN_VALUE;
+    private long to = Long.MAX_VALUE;
+    private String username;
+    private String action;
+    private Integer level;
+
+    public long getFrom() {
+        return from;
+    }
+
+    /**
+     * The events with date equals or after {@code from}.
+     *
+     * @param from
+     * @return
+     */
+    public AuditQuery setFrom(Date from) {
+        this.from = from.getTime();
+
+        return this;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    /**
+     * The events with date before {@code to}.
+     *
+     * @param to
+     * @return
+     */
+    public AuditQuery setTo(Date to) {
+        this.to = to.getTime();
+
+        return this;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public AuditQuery setUsername(String username) {
+        this.username = username;
+
+        return this;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public AuditQuery setAction(String action) {
+        this.action = action;
+
+        return this;
+    }
+
+    public Integer getLevel() {
+        return level;
+    }
+
+    public AuditQuery setLevel(int level) {
+        this.level = level;
+
+        return this;
+    }
+
+    public boolean matches(AuditEvent event) {
+        long timestamp = event.getTimestamp();
+        if (timestamp < from || timestamp >= to) {
+            return false;
+        }
+        if (username != null && !username.equals(event.getUsername())) {
+            return false;
+        }
+        if (action != null && !action.equals(event.getAction())) {
+            return false;
+        }
+
+        return level == null || level == event.getLevel();
+    }
+
+}
@@ -15,6 +15,9 @@
  */
 package ro.fortsoft.auditor;
 
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * This interface represents the entry point.
  * The auditing implementation may use any appropriate medium and format to store audit events.
@@ -25,4 +28,38 @@ public interface Auditor {
 
     void audit(AuditEvent event);
 
+    /**
+     * Audit a batch of events, in order.
+     * The implementations override this method to pay the per event costs (lock, enqueue, write)
+     * once per batch. The default implementation calls {@link #audit(AuditEvent)} for each event.
+     *
+     * @param events
+     */
+    default void auditAll(Collection<AuditEvent> events) {
+        for (AuditEvent event : events) {
+            audit(event);
+        }
+    }
+
+    /**
+     * Audit an event and return a future completed when the event is durably written
+     * (or completed exceptionally with the error of the auditor).
+     * The asynchronous auditors (for example {@link AsyncFileAuditor}) return without waiting for the write.
+     * The default implementation calls {@link #audit(AuditEvent)} on the caller thread
+     * and returns a completed future, so the caller waits as much as for {@link #audit(AuditEvent)}.
+     * The auditors that wrap another auditor forward this call to it.
+     *
+     * @param event
+     * @return
+     */
+    default CompletableFuture<Void> auditAsync(AuditEvent event) {
+        try {
+            audit(event);
+        } catch (RuntimeException e) {
+            return Acknowledgements.failed(e);
+        }
+
+        return CompletableFuture.completedFuture(null);
+    }
+
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+/**
+ * A point in time snapshot of the metrics collected by an {@link InstrumentedAuditor}.
+ * The counters and gauges not supported by the wrapped auditor are {@code -1}.
+ *
+ * @author Decebal Suiu
+ */
+public class AuditorMetrics {
+
+    private final long eventCount;
+    private final long errorCount;
+    private final long droppedCount;
+    private final int queueSize;
+    private final long bytesWritten;
+    private final LatencyHistogram.Snapshot latency;
+    private final LatencyHistogram.Snapshot formatLatency;
+
+    AuditorMetrics(long eventCount, long errorCount, long droppedCount, int queueSize, long bytesWritten,
+                   LatencyHistogram.Snapshot latency, LatencyHistogram.Snapshot formatLatency) {
+        this.eventCount = eventCount;
+        this.errorCount = errorCount;
+        this.droppedCount = droppedCount;
+        this.queueSize = queueSize;
+        this.bytesWritten = bytesWritten;
+        this.latency = latency;
+        this.formatLatency = formatLatency;
+    }
+
+    /**
+     * Returns the number of events passed successfully to the wrapped auditor.
+     *
+     * @return
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Returns the number of {@code audit} calls that failed with an exception.
+     *
+     * @return
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns the latency (nanoseconds) of {@code audit} calls.
+     *
+     * @return
+     */
+    public LatencyHistogram.Snapshot getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the formatting latency (nanoseconds) or {@code null} if the formatter is not instrumented.
+     *
+     * @return
+     */
+    public LatencyHistogram.Snapshot getFormatLatency() {
+        return formatLatency;
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A small pool of daemon threads shared by many asynchronous auditors (see {@link AsyncFileAuditor}).
+ * The number of threads doesn't depend on the number of auditors.
+ *
+ * An auditor with pending events is added (once) to a ready queue. A thread takes the auditor,
+ * lets it write one batch and, if it has more events, puts it back at the end of queue,
+ * so the auditors are served round-robin and a busy auditor cannot starve the others.
+ * An auditor is never served by two threads at the same time.
+ *
+ * The threads are started on the first event. {@link #shutdown(long, TimeUnit)} writes the pending
+ * events until a deadline; after shutdown, the events are written on the caller thread.
+ * The {@link #getDefault() default} scheduler is shut down by a JVM shutdown hook.
+ *
+ * @author Decebal Suiu
+ */
+public class AuditorScheduler {
+
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT = 5000;
+
+    private static volatile AuditorScheduler defaultScheduler;
+
+    private final int threadCount;
+    private final BlockingQueue<Task> ready = new LinkedBlockingQueue<>();
+    private final List<Thread> threads = new ArrayList<>(); // guarded by this
+
+    private volatile boolean started;
+    private volatile boolean shutdown;
+
+    /**
+     * @param threadCount the number of writer threads
+     */
+    public AuditorScheduler(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be positive");
+        }
+
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Returns the scheduler used by the auditors created without an explicit scheduler.
+     * It has up to four threads (not more than the number of processors).
+     *
+     * @return
+     */
+    public static AuditorScheduler getDefault() {
+        if (defaultScheduler == null) {
+            synchronized (AuditorScheduler.class) {
+                if (defaultScheduler == null) {
+                    final AuditorScheduler scheduler = new AuditorScheduler(Math.min(4, Runtime.getRuntime().availableProcessors()));
+                    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            scheduler.shutdown(DEFAULT_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+                        }
+
+                    }, "auditor-scheduler-shutdown"));
+                    defaultScheduler = scheduler;
+                }
+            }
+        }
+
+        return defaultScheduler;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Returns the number of started threads ({@code 0} until the first event).
+     *
+     * @return
+     */
+    public synchronized int getStartedThreadCount() {
+        return threads.size();
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Stop accepting work and wait until the pending events are written or the timeout expires.
+     * The threads are not interrupted (an interrupt closes the file channels), they exit when
+     * the ready queue is empty.
+     *
+     * @param timeout
+     * @param unit
+     * @return {@code true} if all the pending events were written
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        shutdown = true;
+
+        List<Thread> threads;
+        synchronized (this) {
+            threads = new ArrayList<>(this.threads);
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread thread : threads) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                return false;
+            }
+        }
+
+        return ready.isEmpty();
+    }
+
+    /**
+     * Schedule the task, if it's not already scheduled (or running).
+     *
+     * @param task
+     */
+    void schedule(Task task) {
+        if (task.scheduled.get() || !task.scheduled.compareAndSet(false, true)) {
+            // it's in queue or a thread runs it, and that thread checks for new work before release
+            return;
+        }
+
+        if (!shutdown) {
+            start();
+            ready.offer(task);
+            if (!shutdown || !ready.remove(task)) {
+                return;
+            }
+        }
+
+        // after shutdown the caller thread does the work
+        runInline(task);
+    }
+
+    private void start() {
+        if (started) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!started) {
+                DaemonThreadFactory threadFactory = new DaemonThreadFactory("auditor-scheduler");
+                for (int i = 0; i < threadCount; i++) {
+                    Thread thread = threadFactory.newThread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            work();
+                        }
+
+                    });
+                    threads.add(thread);
+                    thread.start();
+                }
+                started = true;
+            }
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Task task;
+            try {
+                task = ready.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // the threads are never interrupted by scheduler
+                continue;
+            }
+
+            if (task != null) {
+                run(task);
+            } else if (shutdown) {
+                break;
+            }
+        }
+    }
+
+    private void run(Task task) {
+        boolean more;
+        try {
+            more = task.drain();
+        } catch (RuntimeException e) {
+            // the task reports its errors, keep the thread alive
+            more = task.hasWork();
+        }
+
+        if (more) {
+            // at the end of queue, so the other tasks get their turn
+            ready.offer(task);
+        } else {
+            release(task);
+        }
+    }
+
+    private void runInline(Task task) {
+        try {
+            while (task.drain()) {
+                // write all
+            }
+        } finally {
+            release(task);
+        }
+    }
+
+    /**
+     * Mark the task as not scheduled and schedule it again if work was added meanwhile.
+     */
+    private void release(Task task) {
+        task.scheduled.set(false);
+        if (task.hasWork()) {
+            schedule(task);
+        }
+    }
+
+    /**
+     * The work of an auditor. The scheduler guarantees that {@link #drain()} is never called concurrently.
+     */
+    abstract static class Task {
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * Write one batch of events.
+         *
+         * @return {@code true} if more work is pending
+         */
+        abstract boolean drain();
+
+        abstract boolean hasWork();
+
+        /**
+         * Take the exclusive ownership of this task (waiting for a running drain to finish)
+         * and never release it, so the caller can do the last drain itself.
+         */
+        void stop() {
+            while (!scheduled.compareAndSet(false, true)) {
+                LockSupport.parkNanos(100000);
+            }
+        }
+
+    }
+
+}
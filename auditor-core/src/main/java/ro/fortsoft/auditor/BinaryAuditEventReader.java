@@ -0,0 +1,283 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ro.fortsoft.auditor.BinaryFormat.*;
+
+/**
+ * Streaming decoder for the binary format written by {@link BinaryAuditEventWriter}.
+ * The events are decoded one by one (see {@link #read()}), the file is never loaded in memory.
+ * The strings from dictionary are shared between the decoded events.
+ *
+ * The class is not thread safe.
+ *
+ * @author Decebal Suiu
+ */
+public class BinaryAuditEventReader implements Closeable {
+
+    private final InputStream in;
+    private final List<String> dictionary = new ArrayList<>();
+
+    private byte[] record = new byte[256];
+    private int offset;
+    private long lastTimestamp;
+
+    /**
+     * Read the events from the beginning of a stream (the header is verified first).
+     *
+     * @param in
+     * @throws IOException
+     */
+    public BinaryAuditEventReader(InputStream in) throws IOException {
+        this(in, true);
+    }
+
+    /**
+     * @param in
+     * @param readHeader {@code false} if the stream is positioned at a block start
+     * @throws IOException
+     */
+    public BinaryAuditEventReader(InputStream in, boolean readHeader) throws IOException {
+        this.in = in;
+
+        if (readHeader) {
+            byte[] header = new byte[HEADER_SIZE];
+            readFully(header, 0, HEADER_SIZE);
+            if (!Arrays.equals(MAGIC, Arrays.copyOf(header, MAGIC.length))) {
+                throw new IOException("Not a binary audit stream");
+            }
+            if (header[MAGIC.length] != VERSION) {
+                throw new IOException("Unsupported binary audit version " + header[MAGIC.length]);
+            }
+        }
+    }
+
+    /**
+     * Read the next event.
+     *
+     * @return the event or {@code null} at the end of stream
+     * @throws IOException
+     */
+    public AuditEvent read() throws IOException {
+        while (readRecord()) {
+            byte type = record[offset++];
+            if (type == RECORD_BLOCK) {
+                dictionary.clear();
+                lastTimestamp = 0;
+            } else if (type == RECORD_EVENT) {
+                try {
+                    return readEvent();
+                } catch (IndexOutOfBoundsException e) {
+                    throw new IOException("Corrupted event record", e);
+                }
+            } else {
+                throw new IOException("Unknown record type " + type);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private AuditEvent readEvent() throws IOException {
+        int flags = record[offset++];
+        int level = (int) readVarLong();
+        long timestamp = lastTimestamp + unZigZag(readVarLong());
+        lastTimestamp = timestamp;
+
+        AuditEvent event = new AuditEvent(((flags & FLAG_NO_ACTION) != 0) ? null : readString(), level);
+        event.setTimestamp(timestamp);
+        if ((flags & FLAG_USERNAME) != 0) {
+            event.setUsername(readString());
+        }
+        if ((flags & FLAG_SESSION) != 0) {
+            event.setSession(readString());
+        }
+        if ((flags & FLAG_IP) != 0) {
+            event.setIp(readString());
+        }
+        if ((flags & FLAG_ERROR_MESSAGE) != 0) {
+            event.setErrorMessage(readString());
+            event.setLevel(level);
+        }
+        if ((flags & FLAG_CONTEXT) != 0) {
+            event.setContext(readMap());
+        }
+
+        return event;
+    }
+
+    private Map<String, Object> readMap() throws IOException {
+        int size = (int) readVarLong();
+        Map<String, Object> map = new LinkedHashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            map.put(readString(), readValue());
+        }
+
+        return map;
+    }
+
+    private Object readValue() throws IOException {
+        byte tag = record[offset++];
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return readUtf8();
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_INT:
+                return (int) unZigZag(readVarLong());
+            case TAG_LONG:
+                return unZigZag(readVarLong());
+            case TAG_DOUBLE:
+                return Double.longBitsToDouble(((long) readFixedInt() << 32) | (readFixedInt() & 0xFFFFFFFFL));
+            case TAG_FLOAT:
+                return Float.intBitsToFloat(readFixedInt());
+            case TAG_DATE:
+                return new Date(unZigZag(readVarLong()));
+            case TAG_LIST:
+                int size = (int) readVarLong();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue());
+                }
+                return list;
+            case TAG_MAP:
+                return readMap();
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    private String readString() throws IOException {
+        int reference = (int) readVarLong();
+        if (reference > 0) {
+            if (reference > dictionary.size()) {
+                throw new IOException("Invalid dictionary reference " + reference);
+            }
+
+            return dictionary.get(reference - 1);
+        }
+
+        String value = readUtf8();
+        if (dictionary.size() < MAX_DICTIONARY_SIZE) {
+            dictionary.add(value);
+        }
+
+        return value;
+    }
+
+    private String readUtf8() throws IOException {
+        int length = (int) readVarLong();
+        String value = new String(record, offset, length, StandardCharsets.UTF_8);
+        offset += length;
+
+        return value;
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = record[offset++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed varint");
+    }
+
+    private int readFixedInt() {
+        int value = ((record[offset] & 0xFF) << 24) | ((record[offset + 1] & 0xFF) << 16)
+            | ((record[offset + 2] & 0xFF) << 8) | (record[offset + 3] & 0xFF);
+        offset += 4;
+
+        return value;
+    }
+
+    /**
+     * Read the next record in {@link #record}.
+     *
+     * @return {@code false} at the end of stream
+     * @throws IOException
+     */
+    private boolean readRecord() throws IOException {
+        long length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated record length");
+            }
+            if (shift > 28) {
+                throw new IOException("Malformed record length");
+            }
+            length |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length == 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid record length " + length);
+        }
+
+        if (record.length < length) {
+            record = new byte[(int) Math.max(length, record.length * 2L)];
+        }
+        readFully(record, 0, (int) length);
+        offset = 0;
+
+        return true;
+    }
+
+    private void readFully(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int count = in.read(bytes, offset, length);
+            if (count < 0) {
+                throw new EOFException("Truncated record");
+            }
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ro.fortsoft.auditor.BinaryFormat.*;
+
+/**
+ * Encodes {@link AuditEvent}s in a compact binary format (see {@link BinaryFormat}).
+ * Records are length-prefixed, the timestamps are stored as varint deltas and the repeated values
+ * (action, username, session, ip, context keys) are dictionary-encoded per block.
+ * The context values are typed ({@link String}, {@link Boolean}, {@link Integer}, {@link Long},
+ * {@link Double}, {@link Float}, {@link Date}, {@link Collection} and {@link Map});
+ * any other value is stored as {@link String}.
+ *
+ * A record changes the state of block (dictionary, last timestamp) only after it's written, so an event
+ * that cannot be encoded (for example a context value with a failing {@code toString()}) doesn't spoil
+ * the next records.
+ *
+ * The class is not thread safe.
+ *
+ * @author Decebal Suiu
+ */
+public class BinaryAuditEventWriter implements Flushable, Closeable {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    private final OutputStream out;
+    private final int blockSize;
+    private final RecordBuffer record = new RecordBuffer();
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    // the dictionary entries added by the record in progress, removed if the record is not written
+    private final List<String> recordEntries = new ArrayList<>();
+
+    private long position;
+    private int blockEvents;
+    private long lastTimestamp;
+    private long blockStart = -1;
+    private long blockMinTimestamp;
+    private long blockMaxTimestamp;
+
+    /**
+     * Write the events to a new stream (the header is written first).
+     *
+     * @param out
+     * @throws IOException
+     */
+    public BinaryAuditEventWriter(OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE, 0);
+    }
+
+    /**
+     * @param out
+     * @param blockSize the number of events in a block (the dictionary is cleared at each block)
+     * @param startPosition the size of existing content when the stream appends to a file,
+     * or {@code 0} for a new stream (the header is written)
+     * @throws IOException
+     */
+    public BinaryAuditEventWriter(OutputStream out, int blockSize, long startPosition) throws IOException {
+        this.out = out;
+        this.blockSize = blockSize;
+
+        if (startPosition == 0) {
+            out.write(MAGIC);
+            out.write(VERSION);
+            position = HEADER_SIZE;
+        } else {
+            position = startPosition;
+        }
+        blockEvents = blockSize; // the first event starts a block
+    }
+
+    public void write(AuditEvent event) throws IOException {
+        if (blockEvents >= blockSize) {
+            startBlock();
+        }
+
+        record.reset();
+        recordEntries.clear();
+        boolean written = false;
+        try {
+            encode(event);
+            writeRecord();
+            written = true;
+        } finally {
+            if (!written) {
+                for (String value : recordEntries) {
+                    dictionary.remove(value);
+                }
+            }
+        }
+
+        long timestamp = event.getTimestamp();
+        lastTimestamp = timestamp;
+        blockMinTimestamp = Math.min(blockMinTimestamp, timestamp);
+        blockMaxTimestamp = Math.max(blockMaxTimestamp, timestamp);
+        blockEvents++;
+    }
+
+    private void encode(AuditEvent event) {
+        record.write(RECORD_EVENT);
+
+        String action = event.getAction();
+        String username = event.getUsername();
+        String session = event.getSession();
+        String ip = event.getIp();
+        String errorMessage = event.getErrorMessage();
+        boolean hasContext = event.hasContext();
+
+        int flags = 0;
+        if (action == null) {
+            flags |= FLAG_NO_ACTION;
+        }
+        if (username != null) {
+            flags |= FLAG_USERNAME;
+        }
+        if (session != null) {
+            flags |= FLAG_SESSION;
+        }
+        if (ip != null) {
+            flags |= FLAG_IP;
+        }
+        if (errorMessage != null) {
+            flags |= FLAG_ERROR_MESSAGE;
+        }
+        if (hasContext) {
+            flags |= FLAG_CONTEXT;
+        }
+        record.write(flags);
+        record.writeVarLong(event.getLevel());
+
+        record.writeVarLong(zigZag(event.getTimestamp() - lastTimestamp));
+
+        if (action != null) {
+            writeString(action);
+        }
+        if (username != null) {
+            writeString(username);
+        }
+        if (session != null) {
+            writeString(session);
+        }
+        if (ip != null) {
+            writeString(ip);
+        }
+        if (errorMessage != null) {
+            writeString(errorMessage);
+        }
+        if (hasContext) {
+            writeMap(event.getContext());
+        }
+    }
+
+    /**
+     * Returns the number of bytes written (including the header).
+     *
+     * @return
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Finish the current block and close the stream.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            endBlock();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Called when a block is finished (before a new block starts or on {@link #close()}).
+     * The default implementation does nothing, {@link BinaryFileAuditor} writes the sparse index here.
+     *
+     * @param start the position of the block start record
+     * @param end the position after the last record of block
+     * @param events the number of events in block
+     * @param minTimestamp
+     * @param maxTimestamp
+     * @throws IOException
+     */
+    protected void onBlockEnd(long start, long end, int events, long minTimestamp, long maxTimestamp) throws IOException {
+    }
+
+    private void startBlock() throws IOException {
+        endBlock();
+
+        blockStart = position;
+        blockMinTimestamp = Long.MAX_VALUE;
+        blockMaxTimestamp = Long.MIN_VALUE;
+        dictionary.clear();
+        lastTimestamp = 0;
+        blockEvents = 0;
+
+        record.reset();
+        record.write(RECORD_BLOCK);
+        writeRecord();
+    }
+
+    private void endBlock() throws IOException {
+        if (blockStart >= 0 && blockEvents > 0) {
+            onBlockEnd(blockStart, position, blockEvents, blockMinTimestamp, blockMaxTimestamp);
+        }
+        blockStart = -1;
+    }
+
+    private void writeRecord() throws IOException {
+        int length = record.size();
+        int prefixLength = writeLength(length);
+        record.writeTo(out);
+        position += prefixLength + length;
+    }
+
+    private int writeLength(int length) throws IOException {
+        int count = 0;
+        long value = length;
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+            count++;
+        }
+        out.write((int) value);
+
+        return count + 1;
+    }
+
+    private void writeString(String value) {
+        Integer id = dictionary.get(value);
+        if (id != null) {
+            record.writeVarLong(id + 1);
+            return;
+        }
+
+        record.writeVarLong(0);
+        record.writeUtf8(value);
+        if (dictionary.size() < MAX_DICTIONARY_SIZE) {
+            dictionary.put(value, dictionary.size());
+            recordEntries.add(value);
+        }
+    }
+
+    private void writeMap(Map<?, ?> map) {
+        record.writeVarLong(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeString(String.valueOf(entry.getKey()));
+            writeValue(entry.getValue());
+        }
+    }
+
+    private void writeValue(Object value) {
+        if (value == null) {
+            record.write(TAG_NULL);
+        } else if (value instanceof String) {
+            record.write(TAG_STRING);
+            record.writeUtf8((String) value);
+        } else if (value instanceof Boolean) {
+            record.write((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Integer) {
+            record.write(TAG_INT);
+            record.writeVarLong(zigZag((Integer) value));
+        } else if (value instanceof Long) {
+            record.write(TAG_LONG);
+            record.writeVarLong(zigZag((Long) value));
+        } else if (value instanceof Double) {
+            record.write(TAG_DOUBLE);
+            record.writeFixedLong(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Float) {
+            record.write(TAG_FLOAT);
+            record.writeFixedInt(Float.floatToIntBits((Float) value));
+        } else if (value instanceof Date) {
+            record.write(TAG_DATE);
+            record.writeVarLong(zigZag(((Date) value).getTime()));
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            record.write(TAG_LIST);
+            record.writeVarLong(collection.size());
+            for (Object item : collection) {
+                writeValue(item);
+            }
+        } else if (value instanceof Map) {
+            record.write(TAG_MAP);
+            writeMap((Map<?, ?>) value);
+        } else {
+            record.write(TAG_STRING);
+            record.writeUtf8(value.toString());
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * A reusable buffer for one record (it exposes the internal array of {@link ByteArrayOutputStream}).
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+
+        private RecordBuffer() {
+            super(256);
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        private void writeFixedLong(long value) {
+            writeFixedInt((int) (value >>> 32));
+            writeFixedInt((int) value);
+        }
+
+        private void writeFixedInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        private void writeUtf8(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * File based {@link Auditor} that writes the events in the compact binary format
+ * of {@link BinaryAuditEventWriter}. Use {@link BinaryAuditEventReader} to read the file back,
+ * or {@link AuditLogReader} for time range queries.
+ * A sparse index (timestamp range to block position, one entry per block) is maintained
+ * in a sidecar file ({@code audit.log.idx} for {@code audit.log}).
+ * If the file exists, the events are appended.
+ * The class is thread safe.
+ *
+ * @author Decebal Suiu
+ */
+public class BinaryFileAuditor implements Auditor {
+
+    protected final BinaryAuditEventWriter writer;
+
+    private final AuditLogIndex.Writer indexWriter;
+
+    public BinaryFileAuditor(File file) throws IOException {
+        this(file, BinaryAuditEventWriter.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param file
+     * @param blockSize the number of events in a block (the dictionary is cleared at each block)
+     * @throws IOException
+     */
+    public BinaryFileAuditor(File file, int blockSize) throws IOException {
+        final AuditLogIndex.Writer indexWriter = new AuditLogIndex.Writer(file);
+        this.indexWriter = indexWriter;
+
+        long length = file.length();
+        writer = new BinaryAuditEventWriter(new BufferedOutputStream(new FileOutputStream(file, true), 64 * 1024), blockSize, length) {
+
+            @Override
+            protected void onBlockEnd(long start, long end, int events, long minTimestamp, long maxTimestamp) throws IOException {
+                indexWriter.write(start, end, events, minTimestamp, maxTimestamp);
+            }
+
+        };
+    }
+
+    @Override
+    public synchronized void audit(AuditEvent event) {
+        try {
+            writer.write(event);
+        } catch (IOException e) {
+            throw new AuditException("Cannot write the audit event", e);
+        }
+    }
+
+    /**
+     * Write the buffered events to file.
+     */
+    public synchronized void flush() {
+        try {
+            // data first, the reader ignores the index entries that point beyond the end of file
+            writer.flush();
+            indexWriter.flush();
+        } catch (IOException e) {
+            throw new AuditException("Cannot flush the audit file", e);
+        }
+    }
+
+    /**
+     * Call this method to close the file.
+     * This method must be call on shutdown application.
+     */
+    public synchronized void close() {
+        try {
+            try {
+                writer.close();
+            } finally {
+                indexWriter.close();
+            }
+        } catch (IOException e) {
+            throw new AuditException("Cannot close the audit file", e);
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+/**
+ * Constants of the binary audit format written by {@link BinaryAuditEventWriter}
+ * and read by {@link BinaryAuditEventReader}.
+ *
+ * <pre>
+ * file    = header record*
+ * header  = 'A' 'U' 'D' 'B' version(byte)
+ * record  = length(varint) type(byte) body
+ * BLOCK   = (empty body), starts a new block: the dictionary is cleared
+ * EVENT   = flags(byte) level(varint) timestampDelta(zigzag varint)
+ *           action?(string) username?(string) session?(string) ip?(string) errorMessage?(string) context?
+ *           (the action is absent for a {@code null} action, see FLAG_NO_ACTION)
+ * string  = 0 length(varint) utf8-bytes      (a literal, added to dictionary)
+ *         | id + 1 (varint)                  (a reference to dictionary)
+ * context = size(varint) (key(string) value)*
+ * value   = tag(byte) payload                (see the TAG_ constants)
+ * </pre>
+ *
+ * The timestamp delta is relative to the previous event from the same block (the first event of the block
+ * stores the epoch milliseconds). A reader can start decoding at any block.
+ *
+ * @author Decebal Suiu
+ */
+final class BinaryFormat {
+
+    static final byte[] MAGIC = { 'A', 'U', 'D', 'B' };
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = MAGIC.length + 1;
+
+    static final byte RECORD_BLOCK = 0;
+    static final byte RECORD_EVENT = 1;
+
+    static final int FLAG_USERNAME = 1;
+    static final int FLAG_SESSION = 1 << 1;
+    static final int FLAG_IP = 1 << 2;
+    static final int FLAG_ERROR_MESSAGE = 1 << 3;
+    static final int FLAG_CONTEXT = 1 << 4;
+    static final int FLAG_NO_ACTION = 1 << 5;
+
+    static final byte TAG_NULL = 0;
+    static final byte TAG_STRING = 1;
+    static final byte TAG_TRUE = 2;
+    static final byte TAG_FALSE = 3;
+    static final byte TAG_INT = 4;
+    static final byte TAG_LONG = 5;
+    static final byte TAG_DOUBLE = 6;
+    static final byte TAG_FLOAT = 7;
+    static final byte TAG_DATE = 8;
+    static final byte TAG_LIST = 9;
+    static final byte TAG_MAP = 10;
+
+    static final int MAX_DICTIONARY_SIZE = 4096;
+
+    private BinaryFormat() {
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses closed audit files on a low priority background thread, using {@link Deflater}.
+ * The file is split in blocks of (at most) {@code blockSize} uncompressed bytes, ending on a line
+ * separator when possible, and each block is compressed independently.
+ * A block index is written at the end of the compressed file, so {@link CompressedSegmentReader}
+ * can seek to any block without inflating the blocks before it.
+ *
+ * The compressed file has the {@link #SUFFIX} suffix and it replaces the original file.
+ * Format:
+ * {@code
+ * header: magic(4) version(1) blockSize(4)
+ * block: compressedLength(4) uncompressedLength(4) deflate data
+ * index: for each block, offset(8) uncompressedOffset(8)
+ * footer: blockCount(4) indexOffset(8) magic(4)
+ * }
+ *
+ * @author Decebal Suiu
+ */
+public class BlockCompressor {
+
+    public static final String SUFFIX = ".dz";
+    public static final String TEMPORARY_SUFFIX = ".tmp";
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    static final byte[] MAGIC = { 'A', 'U', 'D', 'Z' };
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 9;
+    static final int FOOTER_SIZE = 16;
+
+    private final int level;
+    private final int blockSize;
+    private final ExecutorService executor;
+
+    public BlockCompressor() {
+        this(Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param level the compression level (0-9), see {@link Deflater#setLevel(int)}
+     * @param blockSize the maximum size in bytes of an uncompressed block
+     */
+    public BlockCompressor(int level, int blockSize) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("The block size must be positive");
+        }
+
+        this.level = level;
+        this.blockSize = blockSize;
+        executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("block-compressor", Thread.MIN_PRIORITY));
+    }
+
+    /**
+     * Compress the file in background.
+     * The compressed file is created with a temporary name ({@link #TEMPORARY_SUFFIX} after {@link #SUFFIX})
+     * and renamed when it's complete, then the original file is deleted.
+     * If the compression fails, the temporary file is deleted and the original file is kept.
+     *
+     * @param file
+     * @return the compressed file
+     */
+    public CompletableFuture<File> compress(final File file) {
+        final CompletableFuture<File> future = new CompletableFuture<>();
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                File target = new File(file.getPath() + SUFFIX);
+                File temporary = new File(target.getPath() + TEMPORARY_SUFFIX);
+                try {
+                    compress(file, temporary);
+                    if (!temporary.renameTo(target)) {
+                        throw new IOException("Cannot rename '" + temporary + "' to '" + target + "'");
+                    }
+                    if (!file.delete()) {
+                        throw new IOException("Cannot delete '" + file + "'");
+                    }
+                    future.complete(target);
+                } catch (IOException | RuntimeException e) {
+                    temporary.delete();
+                    future.completeExceptionally(e);
+                }
+            }
+
+        });
+
+        return future;
+    }
+
+    /**
+     * Wait for the pending compressions and stop the background thread.
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void compress(File source, File target) throws IOException {
+        Deflater deflater = new Deflater(level, true);
+        byte[] block = new byte[blockSize];
+        byte[] compressed = new byte[blockSize + blockSize / 8 + 64];
+        List<long[]> index = new ArrayList<>();
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(source));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(blockSize);
+
+            // DataOutputStream#size() is an int, so the offset is counted here
+            long offset = HEADER_SIZE;
+            long uncompressedOffset = 0;
+            int length = 0;
+            while (true) {
+                length += read(in, block, length);
+                if (length == 0) {
+                    break;
+                }
+
+                // cut the block after the last line separator, the rest goes in the next block
+                int end = length;
+                if (length == blockSize) {
+                    int lastNewLine = lastIndexOf(block, (byte) '\n', length);
+                    if (lastNewLine >= 0) {
+                        end = lastNewLine + 1;
+                    }
+                }
+
+                deflater.reset();
+                deflater.setInput(block, 0, end);
+                deflater.finish();
+                int compressedLength = 0;
+                while (!deflater.finished()) {
+                    if (compressedLength == compressed.length) {
+                        byte[] bigger = new byte[compressed.length * 2];
+                        System.arraycopy(compressed, 0, bigger, 0, compressedLength);
+                        compressed = bigger;
+                    }
+                    compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+                }
+
+                index.add(new long[] { offset, uncompressedOffset });
+                out.writeInt(compressedLength);
+                out.writeInt(end);
+                out.write(compressed, 0, compressedLength);
+                offset += 8 + compressedLength;
+                uncompressedOffset += end;
+
+                System.arraycopy(block, end, block, 0, length - end);
+                length -= end;
+            }
+
+            long indexOffset = offset;
+            for (long[] entry : index) {
+                out.writeLong(entry[0]);
+                out.writeLong(entry[1]);
+            }
+            out.writeInt(index.size());
+            out.writeLong(indexOffset);
+            out.write(MAGIC);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static int read(InputStream in, byte[] buffer, int offset) throws IOException {
+        int count = 0;
+        while (offset + count < buffer.length) {
+            int n = in.read(buffer, offset + count, buffer.length - offset - count);
+            if (n < 0) {
+                break;
+            }
+            count += n;
+        }
+
+        return count;
+    }
+
+    private static int lastIndexOf(byte[] buffer, byte value, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+}
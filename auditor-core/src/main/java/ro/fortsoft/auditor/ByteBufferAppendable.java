@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link Appendable} that encodes the characters (UTF-8) directly in a {@link ByteBuffer}.
+ * It's not thread safe, but it can be reused (see {@link #reset(ByteBuffer)}).
+ *
+ * @author Decebal Suiu
+ */
+final class ByteBufferAppendable implements Appendable {
+
+    private ByteBuffer buffer;
+    private char highSurrogate;
+
+    ByteBufferAppendable reset(ByteBuffer buffer) {
+        this.buffer = buffer;
+        highSurrogate = 0;
+
+        return this;
+    }
+
+    @Override
+    public ByteBufferAppendable append(CharSequence csq) {
+        if (csq == null) {
+            csq = "null";
+        }
+
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public ByteBufferAppendable append(CharSequence csq, int start, int end) {
+        if (csq == null) {
+            // like Appendable specifies
+            csq = "null";
+        }
+        for (int i = start; i < end; i++) {
+            append(csq.charAt(i));
+        }
+
+        return this;
+    }
+
+    @Override
+    public ByteBufferAppendable append(char c) {
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                putCodePoint(Character.toCodePoint(high, c));
+                return this;
+            }
+            buffer.put((byte) '?');
+        }
+
+        if (c < 0x80) {
+            buffer.put((byte) c);
+        } else if (c < 0x800) {
+            buffer.put((byte) (0xc0 | (c >> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3f)));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            // unpaired
+            buffer.put((byte) '?');
+        } else {
+            buffer.put((byte) (0xe0 | (c >> 12)));
+            buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+            buffer.put((byte) (0x80 | (c & 0x3f)));
+        }
+
+        return this;
+    }
+
+    private void putCodePoint(int codePoint) {
+        buffer.put((byte) (0xf0 | (codePoint >> 18)));
+        buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+        buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+        buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+    }
+
+}
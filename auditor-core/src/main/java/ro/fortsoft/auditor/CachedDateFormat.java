@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A thread safe wrapper over a {@link DateFormat}.
+ * The formatted text is cached per second, so in steady state (many events in the same second)
+ * formatting a timestamp is a volatile read.
+ * If the pattern contains milliseconds then the cache is disabled.
+ * On cache miss, each thread uses its own copy of the date format.
+ *
+ * @author Decebal Suiu
+ */
+final class CachedDateFormat {
+
+    private final ThreadLocal<DateFormat> dateFormat;
+    private final boolean cacheable;
+
+    private volatile Entry last = new Entry(Long.MIN_VALUE, null);
+
+    CachedDateFormat(final DateFormat dateFormat) {
+        this.dateFormat = new ThreadLocal<DateFormat>() {
+
+            @Override
+            protected DateFormat initialValue() {
+                return (DateFormat) dateFormat.clone();
+            }
+
+        };
+        cacheable = (dateFormat instanceof SimpleDateFormat) && !((SimpleDateFormat) dateFormat).toPattern().contains("S");
+    }
+
+    String format(long timestamp) {
+        if (!cacheable) {
+            return dateFormat.get().format(new Date(timestamp));
+        }
+
+        long second = timestamp / 1000 - (timestamp % 1000 < 0 ? 1 : 0);
+        Entry entry = last;
+        if (entry.second != second) {
+            entry = new Entry(second, dateFormat.get().format(new Date(second * 1000)));
+            last = entry;
+        }
+
+        return entry.text;
+    }
+
+    private static class Entry {
+
+        private final long second;
+        private final String text;
+
+        private Entry(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+
+    }
+
+}
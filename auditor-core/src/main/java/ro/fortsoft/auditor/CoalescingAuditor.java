@@ -0,0 +1,304 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decorator that coalesces repeated events, before they reach the wrapped {@link Auditor}.
+ * Two events are identical if they have the same action, username, ip and level.
+ *
+ * The first event of a kind is passed at once and it opens a time window; the identical events
+ * that come inside the window are only counted. When the window ends (or the entry is evicted
+ * because there are more than {@code maxKeys} kinds of events in flight), a summary event is passed,
+ * if there were repeats. The summary has the action, username, ip and level of the coalesced events
+ * and the context entries {@code count} (the number of repeats), {@code firstTimestamp} and {@code lastTimestamp}.
+ * The {@link AuditEvent#ERROR} events are never coalesced.
+ *
+ * The state is split in stripes (by key hash), each with its own lock, and a lookup doesn't allocate.
+ * Call {@link #close()} on shutdown application, to pass the pending summaries.
+ * After close the events are passed to the wrapped auditor without coalescing.
+ * The wrapped auditor is not closed.
+ *
+ * @author Decebal Suiu
+ */
+public class CoalescingAuditor implements Auditor {
+
+    public static final int DEFAULT_MAX_KEYS = 10000;
+
+    private final Auditor auditor;
+    private final long window;
+    private final Stripe[] stripes;
+    private final ScheduledExecutorService flusher;
+
+    private volatile boolean closed;
+
+    private final ThreadLocal<EventKey> probe = new ThreadLocal<EventKey>() {
+
+        @Override
+        protected EventKey initialValue() {
+            return new EventKey();
+        }
+
+    };
+
+    public CoalescingAuditor(Auditor auditor, long window) {
+        this(auditor, window, DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * @param auditor the wrapped auditor
+     * @param window the coalescing window in milliseconds
+     * @param maxKeys the maximum number of kinds of events kept in memory
+     */
+    public CoalescingAuditor(Auditor auditor, long window, int maxKeys) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("The window must be positive");
+        }
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("The max keys must be positive");
+        }
+
+        this.auditor = auditor;
+        this.window = window;
+
+        stripes = new Stripe[StripedCounter.STRIPES];
+        int stripeKeys = Math.max(1, maxKeys / stripes.length);
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(stripeKeys);
+        }
+
+        long period = Math.max(1, window / 2);
+        flusher = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("coalescing-auditor"));
+        flusher.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    flush(System.currentTimeMillis(), false);
+                } catch (RuntimeException e) {
+                    // keep the flusher alive
+                }
+            }
+
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void audit(AuditEvent event) {
+        if (!coalesce(event)) {
+            auditor.audit(event);
+        }
+    }
+
+    /**
+     * Forward the event to the wrapped auditor, unless it's a repeat. A repeat is only counted (it's passed
+     * later in a summary), so its future is completed at once.
+     *
+     * @param event
+     * @return
+     */
+    @Override
+    public CompletableFuture<Void> auditAsync(AuditEvent event) {
+        if (coalesce(event)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return auditor.auditAsync(event);
+    }
+
+    public Auditor getAuditor() {
+        return auditor;
+    }
+
+    /**
+     * Count the event if it's a repeat, else open its window (and pass the expired and evicted summaries).
+     *
+     * @return {@code true} if the event was coalesced (it must not be passed)
+     */
+    private boolean coalesce(AuditEvent event) {
+        if (event.getLevel() == AuditEvent.ERROR) {
+            return false;
+        }
+
+        EventKey key = probe.get().set(event);
+        Stripe stripe = stripes[key.hashCode() & (stripes.length - 1)];
+        long now = System.currentTimeMillis();
+        Summary expired = null;
+        synchronized (stripe) {
+            // checked with the stripe lock, so the final flush of close() sees all the counted repeats
+            if (closed) {
+                return false;
+            }
+
+            Summary summary = stripe.get(key);
+            if (summary != null && now < summary.windowEnd) {
+                summary.add(event.getTimestamp());
+                return true;
+            }
+
+            if (summary != null) {
+                stripe.remove(key);
+                expired = summary;
+            }
+            stripe.put(key.copy(), new Summary(event, now + window));
+        }
+
+        emit(expired);
+        stripe.emitEvicted();
+
+        return false;
+    }
+
+    /**
+     * Stop the background flusher (wait for a running flush) and pass all pending summaries.
+     */
+    public void close() {
+        closed = true;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush(Long.MAX_VALUE, true);
+    }
+
+    /**
+     * Pass the summaries with the window ended before {@code now}.
+     *
+     * @param now
+     * @param all ignore the window end
+     */
+    private void flush(long now, boolean all) {
+        List<Summary> summaries = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                Iterator<Summary> it = stripe.values().iterator();
+                while (it.hasNext()) {
+                    Summary summary = it.next();
+                    // insertion order, so the oldest windows are first
+                    if (!all && summary.windowEnd > now) {
+                        break;
+                    }
+                    summaries.add(summary);
+                    it.remove();
+                }
+            }
+            stripe.emitEvicted();
+        }
+
+        for (Summary summary : summaries) {
+            emit(summary);
+        }
+    }
+
+    private void emit(Summary summary) {
+        if (summary != null && summary.count > 0) {
+            auditor.audit(summary.toEvent());
+        }
+    }
+
+    private class Stripe extends LinkedHashMap<EventKey, Summary> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxKeys;
+        private final List<Summary> evicted = new ArrayList<>(); // guarded by this
+
+        private Stripe(int maxKeys) {
+            this.maxKeys = maxKeys;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<EventKey, Summary> eldest) {
+            if (size() > maxKeys) {
+                evicted.add(eldest.getValue());
+
+                return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * Pass the summaries evicted by {@link #removeEldestEntry(Map.Entry)}, outside the stripe lock.
+         */
+        private void emitEvicted() {
+            List<Summary> summaries;
+            synchronized (this) {
+                if (evicted.isEmpty()) {
+                    return;
+                }
+                summaries = new ArrayList<>(evicted);
+                evicted.clear();
+            }
+
+            for (Summary summary : summaries) {
+                emit(summary);
+            }
+        }
+
+    }
+
+    private static class Summary {
+
+        private final String action;
+        private final String username;
+        private final String ip;
+        private final int level;
+        private final long windowEnd;
+        private int count;
+        private long firstTimestamp;
+        private long lastTimestamp;
+
+        private Summary(AuditEvent event, long windowEnd) {
+            action = event.getAction();
+            username = event.getUsername();
+            ip = event.getIp();
+            level = event.getLevel();
+            this.windowEnd = windowEnd;
+        }
+
+        private void add(long timestamp) {
+            if (count == 0) {
+                firstTimestamp = timestamp;
+            }
+            lastTimestamp = timestamp;
+            count++;
+        }
+
+        private AuditEvent toEvent() {
+            return new AuditEvent(action, level)
+                .setUsername(username)
+                .setIp(ip)
+                .setTimestamp(lastTimestamp)
+                .put("count", count)
+                .put("firstTimestamp", firstTimestamp)
+                .put("lastTimestamp", lastTimestamp);
+        }
+
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link Auditor} that sends each event to many sinks, in parallel.
+ * Each sink is an {@link AsyncAuditor}, with its own buffer, worker thread, {@link OverflowPolicy} and metrics,
+ * so a slow sink doesn't delay the caller or the other sinks (the cost of {@link #audit(AuditEvent)}
+ * is an enqueue per sink).
+ *
+ * Example:
+ * {@code
+ * Auditor auditor = new CompositeAuditor(
+ *     new AsyncAuditor(fileAuditor, 4096, OverflowPolicy.BLOCK),
+ *     new AsyncAuditor(new Log4jAuditor(), 1024, OverflowPolicy.DROP_OLDEST));
+ * }
+ *
+ * The same event instance is passed to all sinks, so the sinks must not modify it.
+ *
+ * @author Decebal Suiu
+ */
+public class CompositeAuditor implements Auditor {
+
+    private final List<AsyncAuditor> sinks;
+
+    public CompositeAuditor(AsyncAuditor... sinks) {
+        this(Arrays.asList(sinks));
+    }
+
+    public CompositeAuditor(List<AsyncAuditor> sinks) {
+        this.sinks = Collections.unmodifiableList(new ArrayList<>(sinks));
+    }
+
+    @Override
+    public void audit(AuditEvent event) {
+        for (AsyncAuditor sink : sinks) {
+            sink.audit(event);
+        }
+    }
+
+    @Override
+    public void auditAll(Collection<AuditEvent> events) {
+        for (AsyncAuditor sink : sinks) {
+            sink.auditAll(events);
+        }
+    }
+
+    /**
+     * Returns a future completed when all sinks processed the event (or failed if a sink failed).
+     *
+     * @param event
+     * @return
+     */
+    @Override
+    public CompletableFuture<Void> auditAsync(AuditEvent event) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[sinks.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = sinks.get(i).auditAsync(event);
+        }
+
+        return CompletableFuture.allOf(futures);
+    }
+
+    public List<AsyncAuditor> getSinks() {
+        return sinks;
+    }
+
+    /**
+     * Returns {@code true} if all sinks are healthy (see {@link AsyncAuditor#isHealthy()}).
+     *
+     * @return
+     */
+    public boolean isHealthy() {
+        for (AsyncAuditor sink : sinks) {
+            if (!sink.isHealthy()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Close all sinks (the auditors wrapped by sinks are not closed).
+     */
+    public void close() {
+        for (AsyncAuditor sink : sinks) {
+            sink.close();
+        }
+    }
+
+}
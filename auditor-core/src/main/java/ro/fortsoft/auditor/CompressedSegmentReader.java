@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a file compressed by {@link BlockCompressor}.
+ * Any block can be read (inflated) independently, using the block index from the end of file.
+ *
+ * @author Decebal Suiu
+ */
+public class CompressedSegmentReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final long[] offsets;
+    private final long[] uncompressedOffsets;
+    private final Inflater inflater = new Inflater(true);
+
+    public CompressedSegmentReader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        try {
+            byte[] magic = new byte[BlockCompressor.MAGIC.length];
+            this.file.readFully(magic);
+            if (!Arrays.equals(magic, BlockCompressor.MAGIC) || this.file.readByte() != BlockCompressor.VERSION) {
+                throw new IOException("'" + file + "' is not a compressed audit file");
+            }
+
+            this.file.seek(this.file.length() - BlockCompressor.FOOTER_SIZE);
+            int blockCount = this.file.readInt();
+            long indexOffset = this.file.readLong();
+            this.file.readFully(magic);
+            if (!Arrays.equals(magic, BlockCompressor.MAGIC)) {
+                throw new IOException("'" + file + "' is incomplete (missing block index)");
+            }
+
+            offsets = new long[blockCount];
+            uncompressedOffsets = new long[blockCount];
+            this.file.seek(indexOffset);
+            for (int i = 0; i < blockCount; i++) {
+                offsets[i] = this.file.readLong();
+                uncompressedOffsets[i] = this.file.readLong();
+            }
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    public int getBlockCount() {
+        return offsets.length;
+    }
+
+    /**
+     * Returns the offset of the first byte of block in the uncompressed file.
+     *
+     * @param block
+     * @return
+     */
+    public long getUncompressedOffset(int block) {
+        return uncompressedOffsets[block];
+    }
+
+    /**
+     * Returns the block that contains the byte with the given offset in the uncompressed file.
+     *
+     * @param uncompressedOffset
+     * @return the block or {@code -1} if the offset is before the first block
+     */
+    public int findBlock(long uncompressedOffset) {
+        int index = Arrays.binarySearch(uncompressedOffsets, uncompressedOffset);
+
+        return (index >= 0) ? index : -index - 2;
+    }
+
+    /**
+     * Read and inflate a block.
+     *
+     * @param block
+     * @return the uncompressed bytes
+     * @throws IOException
+     */
+    public byte[] readBlock(int block) throws IOException {
+        file.seek(offsets[block]);
+        int compressedLength = file.readInt();
+        int length = file.readInt();
+        byte[] compressed = new byte[compressedLength];
+        file.readFully(compressed);
+
+        byte[] data = new byte[length];
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int count = 0;
+            while (count < length && !inflater.finished()) {
+                int n = inflater.inflate(data, count, length - count);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                count += n;
+            }
+            if (count != length) {
+                throw new IOException("Block " + block + " is truncated");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Block " + block + " is corrupted", e);
+        }
+
+        return data;
+    }
+
+    /**
+     * Returns a stream with the uncompressed content, starting with the given block.
+     *
+     * @param fromBlock
+     * @return
+     */
+    public InputStream openStream(final int fromBlock) {
+        return new InputStream() {
+
+            private int block = fromBlock;
+            private ByteArrayInputStream current = new ByteArrayInputStream(new byte[0]);
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+
+                return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                while (current.available() == 0) {
+                    if (block >= offsets.length) {
+                        return -1;
+                    }
+                    current = new ByteArrayInputStream(readBlock(block++));
+                }
+
+                return current.read(b, off, len);
+            }
+
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        file.close();
+    }
+
+}
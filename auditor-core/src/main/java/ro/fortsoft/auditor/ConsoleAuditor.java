@@ -15,6 +15,15 @@
  */
 package ro.fortsoft.auditor;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Collection;
+
 /**
  * Console based {@link Auditor}.
  * Events are printed to console via {@link System#out#println}.
@@ -26,6 +35,19 @@ package ro.fortsoft.auditor;
  */
 public class ConsoleAuditor implements Auditor {
 
+    // a bigger line buffer is not kept (a rare big event doesn't hold memory for the thread's life)
+    private static final int MAX_REUSED_CAPACITY = 8 * 1024;
+
+    private static final ThreadLocal<LineBuffer> line = new ThreadLocal<LineBuffer>() {
+
+        @Override
+        protected LineBuffer initialValue() {
+            return new LineBuffer();
+        }
+
+    };
+
+    private final PrintStream out;
     private final AuditEventFormatter formatter;
 
     public ConsoleAuditor() {
@@ -33,12 +55,117 @@ public class ConsoleAuditor implements Auditor {
     }
 
     public ConsoleAuditor(AuditEventFormatter formatter) {
+        this(null, formatter);
+    }
+
+    /**
+     * Print the events to another stream than {@link System#out}.
+     *
+     * @param out the stream or {@code null} for {@link System#out} (resolved on each event)
+     * @param formatter
+     */
+    public ConsoleAuditor(PrintStream out, AuditEventFormatter formatter) {
+        this.out = out;
         this.formatter = formatter;
     }
 
     @Override
     public void audit(AuditEvent event) {
-        System.out.println(formatter.formatEvent(event));
+        PrintStream out = (this.out != null) ? this.out : System.out;
+        if (formatter instanceof AppendableAuditEventFormatter) {
+            // format and encode in reused buffers (PrintStream.append(char) creates a String per character
+            // and PrintStream.print(String) encodes in a new array) and write the line with one call,
+            // so the line stays in one piece
+            LineBuffer buffer = line.get();
+            StringBuilder chars = buffer.chars;
+            chars.setLength(0);
+            try {
+                ((AppendableAuditEventFormatter) formatter).formatTo(event, chars);
+            } catch (IOException e) {
+                // cannot happen, StringBuilder never throws IOException
+                throw new IllegalStateException(e);
+            }
+            chars.append(System.lineSeparator());
+            ByteBuffer bytes = buffer.encode();
+            out.write(bytes.array(), 0, bytes.position());
+            if (buffer.isOversized()) {
+                line.remove();
+            }
+        } else {
+            out.println(formatter.formatEvent(event));
+        }
+    }
+
+    /**
+     * Format all events in a buffer and print it with one call (so with one lock and one flush of stream).
+     *
+     * @param events
+     */
+    @Override
+    public void auditAll(Collection<AuditEvent> events) {
+        StringBuilder buffer = new StringBuilder(events.size() * 128);
+        String lineSeparator = System.lineSeparator();
+        for (AuditEvent event : events) {
+            if (formatter instanceof AppendableAuditEventFormatter) {
+                try {
+                    ((AppendableAuditEventFormatter) formatter).formatTo(event, buffer);
+                } catch (IOException e) {
+                    // cannot happen, StringBuilder never throws IOException
+                    throw new IllegalStateException(e);
+                }
+            } else {
+                buffer.append(formatter.formatEvent(event));
+            }
+            buffer.append(lineSeparator);
+        }
+
+        PrintStream out = (this.out != null) ? this.out : System.out;
+        out.print(buffer);
+    }
+
+    /**
+     * The per thread buffers of a line: the formatted chars and their bytes, encoded with the default charset
+     * (the charset of a {@link PrintStream} created without an explicit encoding, as {@link System#out}).
+     */
+    private static class LineBuffer {
+
+        private final StringBuilder chars = new StringBuilder(256);
+        private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private CharBuffer charBuffer = CharBuffer.allocate(256);
+        private ByteBuffer byteBuffer = ByteBuffer.allocate(512);
+
+        /**
+         * Encode the {@link #chars} in the reused byte buffer.
+         *
+         * @return the byte buffer, with the bytes between zero and position
+         */
+        private ByteBuffer encode() {
+            int length = chars.length();
+            if (charBuffer.capacity() < length) {
+                charBuffer = CharBuffer.allocate(Math.max(length, charBuffer.capacity() * 2));
+            }
+            int maxBytes = (int) Math.ceil(length * (double) encoder.maxBytesPerChar());
+            if (byteBuffer.capacity() < maxBytes) {
+                byteBuffer = ByteBuffer.allocate(Math.max(maxBytes, byteBuffer.capacity() * 2));
+            }
+
+            chars.getChars(0, length, charBuffer.array(), 0);
+            charBuffer.clear();
+            charBuffer.limit(length);
+            byteBuffer.clear();
+            encoder.reset();
+            encoder.encode(charBuffer, byteBuffer, true);
+            encoder.flush(byteBuffer);
+
+            return byteBuffer;
+        }
+
+        private boolean isOversized() {
+            return chars.capacity() > MAX_REUSED_CAPACITY || charBuffer.capacity() > MAX_REUSED_CAPACITY;
+        }
+
     }
 
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum, as used by iSCSI, ext4 and many storage engines.
+ * It's computed with the slicing-by-8 method (eight lookup tables, eight bytes per step).
+ * The JDK has {@code java.util.zip.CRC32C} only since Java 9.
+ *
+ * @author Decebal Suiu
+ */
+final class Crc32c implements Checksum {
+
+    private static final int POLYNOMIAL = 0x82F63B78; // reversed 0x1EDC6F41
+
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][i] = crc;
+        }
+        for (int i = 0; i < 256; i++) {
+            int crc = TABLES[0][i];
+            for (int table = 1; table < 8; table++) {
+                crc = TABLES[0][crc & 0xFF] ^ (crc >>> 8);
+                TABLES[table][i] = crc;
+            }
+        }
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    @Override
+    public void update(int b) {
+        crc = TABLES[0][(crc ^ b) & 0xFF] ^ (crc >>> 8);
+    }
+
+    @Override
+    public void update(byte[] bytes, int offset, int length) {
+        crc = update(crc, bytes, offset, length);
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+
+    /**
+     * Returns the checksum of a byte range (without creating a {@link Crc32c} instance).
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return
+     */
+    static int compute(byte[] bytes, int offset, int length) {
+        return ~update(0xFFFFFFFF, bytes, offset, length);
+    }
+
+    private static int update(int crc, byte[] bytes, int offset, int length) {
+        int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+
+        int end = offset + length;
+        while (end - offset >= 8) {
+            int low = crc ^ ((bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8
+                | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24);
+            crc = t7[low & 0xFF] ^ t6[(low >>> 8) & 0xFF] ^ t5[(low >>> 16) & 0xFF] ^ t4[low >>> 24]
+                ^ t3[bytes[offset + 4] & 0xFF] ^ t2[bytes[offset + 5] & 0xFF]
+                ^ t1[bytes[offset + 6] & 0xFF] ^ t0[bytes[offset + 7] & 0xFF];
+            offset += 8;
+        }
+        while (offset < end) {
+            crc = t0[(crc ^ bytes[offset++]) & 0xFF] ^ (crc >>> 8);
+        }
+
+        return crc;
+    }
+
+}
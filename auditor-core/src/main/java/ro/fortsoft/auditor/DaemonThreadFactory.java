@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads, so the background work of auditors never blocks the JVM exit.
+ *
+ * @author Decebal Suiu
+ */
+final class DaemonThreadFactory implements ThreadFactory {
+
+    private final String name;
+    private final int priority;
+    private final AtomicInteger count = new AtomicInteger();
+
+    DaemonThreadFactory(String name) {
+        this(name, Thread.NORM_PRIORITY);
+    }
+
+    DaemonThreadFactory(String name, int priority) {
+        this.name = name;
+        this.priority = priority;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(priority);
+
+        return thread;
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+/**
+ * When a {@link FileAuditor} forces (fsync) the written events to disk.
+ *
+ * @author Decebal Suiu
+ */
+public enum Durability {
+
+    /**
+     * Never, the operating system decides when the data reaches the disk.
+     */
+    NONE,
+
+    /**
+     * Periodically, on a background thread (every {@code syncInterval} milliseconds).
+     */
+    INTERVAL,
+
+    /**
+     * Before {@link Auditor#audit(AuditEvent)} returns. The concurrent callers share one fsync,
+     * that covers all events written since the previous fsync (group commit).
+     */
+    GROUP_COMMIT
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+/**
+ * The kind of an event: action, username, ip and level.
+ * The key is mutable, so the same instance (per thread) can be used for allocation free lookups in maps;
+ * a {@link #copy()} is stored in map.
+ *
+ * @author Decebal Suiu
+ */
+final class EventKey {
+
+    private String action;
+    private String username;
+    private String ip;
+    private int level;
+    private int hash;
+
+    EventKey set(AuditEvent event) {
+        return set(event.getAction(), event.getUsername(), event.getIp(), event.getLevel());
+    }
+
+    EventKey set(String action, String username, String ip, int level) {
+        this.action = action;
+        this.username = username;
+        this.ip = ip;
+        this.level = level;
+
+        int hash = hashCode(action);
+        hash = 31 * hash + hashCode(username);
+        hash = 31 * hash + hashCode(ip);
+        hash = 31 * hash + level;
+        // spread the high bits, the stripes are selected with the low bits
+        this.hash = hash ^ (hash >>> 16);
+
+        return this;
+    }
+
+    EventKey copy() {
+        return new EventKey().set(action, username, ip, level);
+    }
+
+    String getAction() {
+        return action;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    String getIp() {
+        return ip;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof EventKey)) {
+            return false;
+        }
+
+        EventKey key = (EventKey) o;
+
+        return level == key.level && equals(action, key.action) && equals(username, key.username) && equals(ip, key.ip);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    private static int hashCode(Object object) {
+        return (object != null) ? object.hashCode() : 0;
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+
+}
@@ -17,9 +17,16 @@ package ro.fortsoft.auditor;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * File based {@link Auditor}.
@@ -27,6 +34,12 @@ import java.io.PrintWriter;
  * The conversion to {@link String} is made using a {@link AuditEventFormatter}.
  * If a formatter is not specified then {@link SimpleAuditEventFormatter} is used.
  * The class is thread safe.
+ *
+ * The {@link Durability} mode decides when the events are forced (fsync) to disk.
+ * The default is {@link Durability#NONE}. In all modes, {@link #awaitDurable()} can be used
+ * to wait until the events written by the caller reached the disk.
+ * The future returned by {@link #auditAsync(AuditEvent)} is completed after fsync, by a thread of
+ * the {@link AuditorScheduler#getDefault() default scheduler} (one fsync for all the waiting events).
 
  * @author Decebal Suiu
  */
@@ -35,26 +48,367 @@ public class FileAuditor implements Auditor {
     protected final PrintWriter writer;
     protected final AuditEventFormatter formatter;
 
+    private final FileChannel channel;
+    private final CountingOutputStream out;
+    private final Durability durability;
+    private final ScheduledExecutorService syncExecutor;
+    private final Object syncLock = new Object();
+    private final Acknowledgements acknowledgements = new Acknowledgements();
+    private final AuditorScheduler.Task acknowledgeTask = new AuditorScheduler.Task() {
+
+        @Override
+        boolean drain() {
+            acknowledge();
+
+            return hasWork();
+        }
+
+        @Override
+        boolean hasWork() {
+            return !acknowledgements.isEmpty();
+        }
+
+    };
+
+    private long writeSequence; // guarded by this
+    private volatile long syncSequence;
+    private boolean syncInProgress; // guarded by syncLock
+
     public FileAuditor(File file) throws IOException {
         this(file, SimpleAuditEventFormatter.get());
     }
 
     public FileAuditor(File file, AuditEventFormatter formatter) throws IOException {
-        writer = new PrintWriter(new BufferedWriter(new FileWriter(file, true)));
+        this(file, formatter, Durability.NONE, 0);
+    }
+
+    /**
+     * @param file
+     * @param formatter
+     * @param durability
+     * @param syncInterval the interval in milliseconds between two fsync, for {@link Durability#INTERVAL}
+     * @throws IOException
+     */
+    public FileAuditor(File file, AuditEventFormatter formatter, Durability durability, long syncInterval) throws IOException {
+        this(new FileOutputStream(file, true), formatter, durability, syncInterval);
+    }
+
+    FileAuditor(FileOutputStream fileOut, AuditEventFormatter formatter, Durability durability, long syncInterval) {
+        channel = fileOut.getChannel();
+        out = new CountingOutputStream(fileOut);
+        writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)));
         this.formatter = formatter;
+        this.durability = durability;
+
+        if (durability == Durability.INTERVAL) {
+            if (syncInterval <= 0) {
+                throw new IllegalArgumentException("The sync interval must be positive");
+            }
+
+            syncExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("file-auditor-sync"));
+            syncExecutor.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    // not awaitDurable(), an overridable method can run before the subclass is constructed
+                    try {
+                        syncWritten();
+                    } catch (RuntimeException e) {
+                        // retry on next tick (an exception cancels the task), the callers of awaitDurable() see the error
+                    }
+                }
+
+            }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        } else {
+            syncExecutor = null;
+        }
+    }
+
+    @Override
+    public void audit(AuditEvent event) {
+        long sequence;
+        synchronized (this) {
+            write(event);
+            sequence = ++writeSequence;
+        }
+
+        if (durability == Durability.GROUP_COMMIT) {
+            awaitDurable(sequence);
+        }
+    }
+
+    /**
+     * Write the event and return a future completed when the event is on disk.
+     *
+     * @param event
+     * @return
+     */
+    @Override
+    public CompletableFuture<Void> auditAsync(AuditEvent event) {
+        long sequence;
+        try {
+            synchronized (this) {
+                write(event);
+                sequence = ++writeSequence;
+            }
+        } catch (RuntimeException e) {
+            return Acknowledgements.failed(e);
+        }
+
+        CompletableFuture<Void> future = acknowledgements.add(sequence);
+        AuditorScheduler.getDefault().schedule(acknowledgeTask);
+
+        return future;
     }
 
+    /**
+     * Write the events under one lock (and, for {@link Durability#GROUP_COMMIT}, wait for one fsync).
+     *
+     * @param events
+     */
     @Override
-    public synchronized void audit(AuditEvent event) {
-        writer.println(formatter.formatEvent(event));
+    public void auditAll(Collection<AuditEvent> events) {
+        long sequence;
+        synchronized (this) {
+            for (AuditEvent event : events) {
+                write(event);
+            }
+            sequence = ++writeSequence;
+        }
+
+        if (durability == Durability.GROUP_COMMIT) {
+            awaitDurable(sequence);
+        }
+    }
+
+    /**
+     * Wait until all the events written before this call are on disk.
+     * If another thread is already forcing the file, the caller waits for it and then,
+     * if needed, it forces the file for all waiting callers (group commit).
+     *
+     * @throws AuditException if the events cannot be written
+     */
+    public void awaitDurable() {
+        long sequence;
+        synchronized (this) {
+            sequence = writeSequence;
+        }
+
+        awaitDurable(sequence);
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Returns the number of bytes written in file by this auditor (the buffered bytes are not counted).
+     *
+     * @return
+     */
+    public long getBytesWritten() {
+        return out.getCount();
+    }
+
+    /**
+     * Write one event (and the line separator) to {@link #writer}.
+     * If the formatter is an {@link AppendableAuditEventFormatter} then the event is formatted
+     * directly in the writer's buffer, without an intermediate {@link String}; if the formatter fails,
+     * the part of line already written is terminated, so the next event starts on its own line.
+     * The caller must guarantee exclusive access to the writer.
+     *
+     * @param event
+     */
+    protected void write(AuditEvent event) {
+        if (formatter instanceof AppendableAuditEventFormatter) {
+            try {
+                ((AppendableAuditEventFormatter) formatter).formatTo(event, writer);
+            } catch (IOException e) {
+                // cannot happen, PrintWriter never throws IOException (see PrintWriter#checkError)
+                throw new IllegalStateException(e);
+            } catch (RuntimeException e) {
+                // the formatter may have written a part of the line
+                writer.println();
+                throw e;
+            }
+            writer.println();
+        } else {
+            writer.println(formatter.formatEvent(event));
+        }
+    }
+
+    /**
+     * Write a batch of events and flush the writer.
+     * An event that cannot be written (for example the formatter fails) doesn't stop the batch,
+     * it's reported to {@link #onWriteFailure(AuditEvent, RuntimeException)}.
+     *
+     * @param events
+     * @param count the number of events from array
+     * @return the sequence of the last written event (see {@link #awaitDurable(long)})
+     */
+    protected synchronized long writeBatch(AuditEvent[] events, int count) {
+        for (int i = 0; i < count; i++) {
+            try {
+                write(events[i]);
+            } catch (RuntimeException e) {
+                onWriteFailure(events[i], e);
+            }
+        }
+        writer.flush();
+        writeSequence += count;
+
+        return writeSequence;
+    }
+
+    /**
+     * Called (with the writer's lock) for an event of a batch that cannot be written.
+     *
+     * @param event
+     * @param e
+     */
+    protected void onWriteFailure(AuditEvent event, RuntimeException e) {
+    }
+
+    /**
+     * Copy the events from a spill journal, as one write.
+     * The chunks of lines are written to the file stream, not with the {@link #writer} (its error is never cleared
+     * and its buffer keeps the chars it didn't write), and a chunk that cannot be written is removed from file,
+     * so the retry resumes without duplicate lines.
+     *
+     * @param journal
+     * @return the sequence of this write (see {@link #awaitDurable(long)})
+     * @throws IOException
+     */
+    synchronized long replay(SpillJournal journal) throws IOException {
+        writer.flush();
+        journal.replay(new SpillJournal.Output() {
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                long size = channel.size();
+                try {
+                    out.write(bytes, offset, length);
+                } catch (IOException e) {
+                    // roll back the partial chunk
+                    channel.truncate(size);
+                    throw e;
+                }
+            }
+
+        });
+
+        return ++writeSequence;
+    }
+
+    /**
+     * Wait until the event with the given sequence (and all events before it) is on disk.
+     *
+     * @param sequence
+     */
+    protected void awaitDurable(long sequence) {
+        awaitSync(sequence);
+    }
+
+    private void syncWritten() {
+        long sequence;
+        synchronized (this) {
+            sequence = writeSequence;
+        }
+
+        awaitSync(sequence);
+    }
+
+    private void awaitSync(long sequence) {
+        while (syncSequence < sequence) {
+            synchronized (syncLock) {
+                while (syncInProgress && syncSequence < sequence) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new AuditException("Interrupted while waiting for fsync", e);
+                    }
+                }
+                if (syncSequence >= sequence) {
+                    return;
+                }
+                syncInProgress = true;
+            }
+
+            try {
+                sync();
+            } finally {
+                synchronized (syncLock) {
+                    syncInProgress = false;
+                    syncLock.notifyAll();
+                }
+            }
+        }
     }
 
     /**
      * Call this method to close the {@link PrintWriter} used to print lines in file.
      * This method must be call on shutdown application.
+     *
+     * @throws AuditException if the buffered events cannot be written
      */
     public void close() {
+        if (syncExecutor != null) {
+            // no interrupt, it closes the file channel if the sync thread is in force()
+            syncExecutor.shutdown();
+            try {
+                syncExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!acknowledgements.isEmpty()) {
+            acknowledge();
+        }
+        if (durability != Durability.NONE) {
+            try {
+                awaitDurable();
+            } catch (AuditException e) {
+                // close anyway
+            }
+        }
+
         writer.close();
+        if (writer.checkError()) {
+            throw new AuditException("Cannot write the audit file");
+        }
+    }
+
+    private void acknowledge() {
+        long sequence;
+        synchronized (this) {
+            sequence = writeSequence;
+        }
+
+        try {
+            awaitDurable(sequence);
+            acknowledgements.complete(sequence, null);
+        } catch (AuditException e) {
+            acknowledgements.complete(sequence, e);
+        }
+    }
+
+    private void sync() {
+        long sequence;
+        synchronized (this) {
+            writer.flush();
+            if (writer.checkError()) {
+                throw new AuditException("Cannot write the audit file");
+            }
+            sequence = writeSequence;
+        }
+
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new AuditException("Cannot force the audit file to disk", e);
+        }
+        syncSequence = sequence;
     }
 
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decorator that measures how long the formatting of an event takes.
+ * Use it with {@link InstrumentedAuditor} to expose the formatting latency together with the audit latency.
+ *
+ * @author Decebal Suiu
+ */
+public class InstrumentedAuditEventFormatter implements AppendableAuditEventFormatter {
+
+    private final AuditEventFormatter formatter;
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public InstrumentedAuditEventFormatter(AuditEventFormatter formatter) {
+        this.formatter = formatter;
+    }
+
+    @Override
+    public String formatEvent(AuditEvent event) {
+        long start = System.nanoTime();
+        try {
+            return formatter.formatEvent(event);
+        } finally {
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void formatTo(AuditEvent event, Appendable out) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (formatter instanceof AppendableAuditEventFormatter) {
+                ((AppendableAuditEventFormatter) formatter).formatTo(event, out);
+            } else {
+                out.append(formatter.formatEvent(event));
+            }
+        } finally {
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void formatTo(AuditEvent event, ByteBuffer buffer) {
+        long start = System.nanoTime();
+        try {
+            if (formatter instanceof AppendableAuditEventFormatter) {
+                ((AppendableAuditEventFormatter) formatter).formatTo(event, buffer);
+            } else {
+                buffer.put(formatter.formatEvent(event).getBytes(StandardCharsets.UTF_8));
+            }
+        } finally {
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+}
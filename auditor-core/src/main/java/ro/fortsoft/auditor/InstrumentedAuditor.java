@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Decorator that measures an {@link Auditor}: the number of events and errors, the latency of
+ * {@link #audit(AuditEvent)} and, when the wrapped auditor supports them, the dropped events,
+ * the queue size and the bytes written.
+ * The counters and the histograms are striped by thread, so the recording doesn't add contention.
+ *
+ * The metrics are available with {@link #getMetrics()} or via JMX (see {@link #registerMBean(String)}).
+ *
+ * Example:
+ * {@code
+ * InstrumentedAuditEventFormatter formatter = new InstrumentedAuditEventFormatter(SimpleAuditEventFormatter.get());
+ * InstrumentedAuditor auditor = new InstrumentedAuditor(new AsyncFileAuditor(file, formatter), formatter);
+ * auditor.registerMBean("audit");
+ * }
+ *
+ * @author Decebal Suiu
+ */
+public class InstrumentedAuditor implements Auditor, InstrumentedAuditorMBean {
+
+    private final Auditor auditor;
+    private final InstrumentedAuditEventFormatter formatter;
+    private final StripedCounter events = new StripedCounter();
+    private final StripedCounter errors = new StripedCounter();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private ObjectName objectName;
+
+    public InstrumentedAuditor(Auditor auditor) {
+        this(auditor, null);
+    }
+
+    /**
+     * @param auditor
+     * @param formatter the formatter used by the wrapped auditor, or {@code null}
+     */
+    public InstrumentedAuditor(Auditor auditor, InstrumentedAuditEventFormatter formatter) {
+        this.auditor = auditor;
+        this.formatter = formatter;
+    }
+
+    @Override
+    public void audit(AuditEvent event) {
+        long start = System.nanoTime();
+        try {
+            auditor.audit(event);
+            events.increment();
+        } catch (RuntimeException e) {
+            errors.increment();
+            throw e;
+        } finally {
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Forward the event to the wrapped auditor; the latency is the time of the call (not of the write).
+     *
+     * @param event
+     * @return the future of the wrapped auditor
+     */
+    @Override
+    public CompletableFuture<Void> auditAsync(AuditEvent event) {
+        long start = System.nanoTime();
+        try {
+            CompletableFuture<Void> future = auditor.auditAsync(event);
+            events.increment();
+
+            return future;
+        } catch (RuntimeException e) {
+            errors.increment();
+            throw e;
+        } finally {
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    public Auditor getAuditor() {
+        return auditor;
+    }
+
+    public AuditorMetrics getMetrics() {
+        return new AuditorMetrics(getEventCount(), getErrorCount(), getDroppedCount(), getQueueSize(),
+            getBytesWritten(), latency.snapshot(), (formatter != null) ? formatter.getLatency().snapshot() : null);
+    }
+
+    /**
+     * Register this auditor in the platform MBean server,
+     * with the name {@code ro.fortsoft.auditor:type=Auditor,name=<name>}.
+     *
+     * @param name
+     */
+    public synchronized void registerMBean(String name) {
+        unregisterMBean();
+        try {
+            ObjectName objectName = createObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            throw new AuditException("Cannot register the MBean '" + name + "'", e);
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new AuditException("Cannot unregister the MBean '" + objectName + "'", e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    @Override
+    public long getEventCount() {
+        return events.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        if (auditor instanceof AsyncFileAuditor) {
+            return ((AsyncFileAuditor) auditor).getDroppedCount();
+        } else if (auditor instanceof AsyncAuditor) {
+            return ((AsyncAuditor) auditor).getDroppedCount();
+        } else if (auditor instanceof NetworkAuditor) {
+            return ((NetworkAuditor) auditor).getDroppedCount();
+        }
+
+        return -1;
+    }
+
+    @Override
+    public int getQueueSize() {
+        if (auditor instanceof AsyncFileAuditor) {
+            return ((AsyncFileAuditor) auditor).getQueueSize();
+        } else if (auditor instanceof AsyncAuditor) {
+            return ((AsyncAuditor) auditor).getQueueSize();
+        } else if (auditor instanceof NetworkAuditor) {
+            return ((NetworkAuditor) auditor).getQueueSize();
+        }
+
+        return -1;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        if (auditor instanceof FileAuditor) {
+            return ((FileAuditor) auditor).getBytesWritten();
+        } else if (auditor instanceof RollingFileAuditor) {
+            return ((RollingFileAuditor) auditor).getBytesWritten();
+        } else if (auditor instanceof ThreadLocalFileAuditor) {
+            return ((ThreadLocalFileAuditor) auditor).getBytesWritten();
+        }
+
+        return -1;
+    }
+
+    @Override
+    public double getLatencyP50() {
+        return toMicros(latency.snapshot().getP50());
+    }
+
+    @Override
+    public double getLatencyP99() {
+        return toMicros(latency.snapshot().getP99());
+    }
+
+    @Override
+    public double getLatencyP999() {
+        return toMicros(latency.snapshot().getP999());
+    }
+
+    @Override
+    public double getLatencyMax() {
+        return toMicros(latency.snapshot().getMax());
+    }
+
+    @Override
+    public double getFormatLatencyP50() {
+        return (formatter != null) ? toMicros(formatter.getLatency().snapshot().getP50()) : -1;
+    }
+
+    @Override
+    public double getFormatLatencyP99() {
+        return (formatter != null) ? toMicros(formatter.getLatency().snapshot().getP99()) : -1;
+    }
+
+    @Override
+    public double getFormatLatencyP999() {
+        return (formatter != null) ? toMicros(formatter.getLatency().snapshot().getP999()) : -1;
+    }
+
+    private static ObjectName createObjectName(String name) throws MalformedObjectNameException {
+        return new ObjectName("ro.fortsoft.auditor:type=Auditor,name=" + ObjectName.quote(name));
+    }
+
+    private static double toMicros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+/**
+ * JMX view of an {@link InstrumentedAuditor}.
+ * The latencies are in microseconds; {@code -1} means that the value is not available for the wrapped auditor.
+ *
+ * @author Decebal Suiu
+ */
+public interface InstrumentedAuditorMBean {
+
+    long getEventCount();
+
+    long getErrorCount();
+
+    long getDroppedCount();
+
+    int getQueueSize();
+
+    long getBytesWritten();
+
+    double getLatencyP50();
+
+    double getLatencyP99();
+
+    double getLatencyP999();
+
+    double getLatencyMax();
+
+    double getFormatLatencyP50();
+
+    double getFormatLatencyP99();
+
+    double getFormatLatencyP999();
+
+}
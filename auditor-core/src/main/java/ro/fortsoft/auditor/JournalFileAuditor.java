@@ -0,0 +1,523 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crash safe file based {@link Auditor}.
+ * Each event is formatted (UTF-8) and written as a frame:
+ * {@code
+ * [int length][int CRC32C of payload][payload]
+ * }
+ * The frames are collected in a buffer and written to file in batches (when the buffer is full,
+ * on {@link #flush()}, on {@link #sync()} and on {@link #close()}).
+ *
+ * {@link #sync()} forces the file to disk and records the synced position in a checkpoint file
+ * ({@code <file>.chk}). On startup, the recovery scans only the frames after the checkpoint,
+ * truncates the file after the last valid frame (a torn write) and reports what it found
+ * (see {@link #getRecoveryResult()}). So the recovery time depends on the not synced tail, not on file size.
+ * Use {@link JournalReader} to read the events.
+ *
+ * The class is thread safe. Call {@link #close()} on shutdown application.
+ *
+ * @author Decebal Suiu
+ */
+public class JournalFileAuditor implements Auditor {
+
+    public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+    public static final String CHECKPOINT_SUFFIX = ".chk";
+
+    static final int MAGIC = 0x4155444A; // AUDJ
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int FRAME_HEADER_SIZE = 8;
+    static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    private static final int CHECKPOINT_SLOT_SIZE = 12;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final RandomAccessFile checkpointFile;
+    private final AuditEventFormatter formatter;
+    private final ByteBuffer batch;
+    private final RecoveryResult recoveryResult;
+    private final ScheduledExecutorService syncExecutor;
+    private final Object syncLock = new Object();
+
+    private long position; // guarded by this
+    private boolean failed; // guarded by this
+    private long checkpoints; // guarded by syncLock
+    private volatile boolean closed;
+
+    public JournalFileAuditor(File file) throws IOException {
+        this(file, SimpleAuditEventFormatter.get(), DEFAULT_BATCH_SIZE, 0);
+    }
+
+    /**
+     * @param file
+     * @param formatter
+     * @param batchSize the size in bytes of the write buffer
+     * @param syncInterval the interval in milliseconds between two {@link #sync()}, or {@code 0} to sync only on close
+     * @throws IOException
+     */
+    public JournalFileAuditor(File file, AuditEventFormatter formatter, int batchSize, long syncInterval) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        channel = this.file.getChannel();
+        checkpointFile = new RandomAccessFile(new File(file.getPath() + CHECKPOINT_SUFFIX), "rw");
+        this.formatter = formatter;
+        batch = ByteBuffer.allocate(batchSize);
+
+        try {
+            recoveryResult = recover(channel, readCheckpoint(checkpointFile, channel.size()));
+        } catch (IOException e) {
+            checkpointFile.close();
+            this.file.close();
+            throw e;
+        }
+        position = recoveryResult.getEndPosition();
+        channel.position(position);
+
+        if (syncInterval > 0) {
+            syncExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("journal-file-auditor-sync"));
+            syncExecutor.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        sync();
+                    } catch (RuntimeException e) {
+                        // retry on next tick (an exception cancels the task), the callers of sync() see the error
+                    }
+                }
+
+            }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        } else {
+            syncExecutor = null;
+        }
+    }
+
+    /**
+     * Add the event to the write buffer. If the auditor is closed the event is dropped.
+     *
+     * @param event
+     * @throws AuditException if the file cannot be written
+     */
+    @Override
+    public synchronized void audit(AuditEvent event) {
+        if (closed) {
+            return;
+        }
+        checkNotFailed();
+
+        int start = batch.position();
+        if (batch.remaining() > FRAME_HEADER_SIZE) {
+            try {
+                batch.position(start + FRAME_HEADER_SIZE);
+                encode(event, batch);
+                endFrame(start);
+                return;
+            } catch (BufferOverflowException e) {
+                // the frame doesn't fit in the rest of buffer
+                batch.position(start);
+            } catch (RuntimeException e) {
+                // the formatter failed, remove the frame header and the partial record
+                batch.position(start);
+                throw e;
+            }
+        }
+
+        if (start > 0) {
+            writeBatch();
+            audit(event);
+        } else {
+            writeLarge(event);
+        }
+    }
+
+    /**
+     * Write the buffered frames to file (without forcing them to disk).
+     */
+    public synchronized void flush() {
+        writeBatch();
+    }
+
+    /**
+     * Write the buffered frames, force the file to disk and update the checkpoint.
+     *
+     * @throws AuditException if the file cannot be written
+     */
+    public void sync() {
+        synchronized (syncLock) {
+            long synced;
+            synchronized (this) {
+                writeBatch();
+                synced = position;
+            }
+
+            try {
+                channel.force(false);
+                writeCheckpoint(synced);
+            } catch (IOException e) {
+                throw new AuditException("Cannot force the journal file to disk", e);
+            }
+        }
+    }
+
+    /**
+     * Returns what the recovery found when this auditor was created.
+     *
+     * @return
+     */
+    public RecoveryResult getRecoveryResult() {
+        return recoveryResult;
+    }
+
+    /**
+     * Returns the number of bytes written in file (the buffered frames are not counted).
+     *
+     * @return
+     */
+    public synchronized long getBytesWritten() {
+        return position - recoveryResult.getEndPosition();
+    }
+
+    /**
+     * Sync and close the file.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        if (syncExecutor != null) {
+            // no interrupt, it closes the file channel if the sync thread is in force()
+            syncExecutor.shutdown();
+            try {
+                syncExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            sync();
+        } finally {
+            try {
+                checkpointFile.close();
+                file.close();
+            } catch (IOException e) {
+                throw new AuditException("Cannot close the journal file", e);
+            }
+        }
+    }
+
+    private void endFrame(int start) {
+        int length = batch.position() - start - FRAME_HEADER_SIZE;
+        if (length > MAX_RECORD_SIZE) {
+            batch.position(start);
+            throw new AuditException("The audit event is too large (" + length + " bytes)");
+        }
+
+        batch.putInt(start, length);
+        batch.putInt(start + 4, Crc32c.compute(batch.array(), start + FRAME_HEADER_SIZE, length));
+    }
+
+    private void writeBatch() {
+        if (batch.position() == 0) {
+            return;
+        }
+
+        batch.flip();
+        try {
+            write(batch);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * The frame doesn't fit in an empty buffer, so it's encoded in a bigger (not reused) buffer.
+     */
+    private void writeLarge(AuditEvent event) {
+        byte[] payload = formatter.formatEvent(event).getBytes(StandardCharsets.UTF_8);
+        if (payload.length > MAX_RECORD_SIZE) {
+            throw new AuditException("The audit event is too large (" + payload.length + " bytes)");
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+        frame.putInt(payload.length).putInt(Crc32c.compute(payload, 0, payload.length)).put(payload);
+        frame.flip();
+        write(frame);
+    }
+
+    private void write(ByteBuffer buffer) {
+        checkNotFailed();
+
+        long start = position;
+        try {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer);
+            }
+        } catch (IOException e) {
+            rollback(start);
+            throw new AuditException("Cannot write the journal file", e);
+        }
+    }
+
+    /**
+     * Remove a partial write, so the next frames are not appended after a torn frame
+     * (the recovery would truncate them). If that's not possible, the auditor fails.
+     */
+    private void rollback(long start) {
+        try {
+            channel.truncate(start);
+            channel.position(start);
+            position = start;
+        } catch (IOException e) {
+            failed = true;
+        }
+    }
+
+    private void checkNotFailed() {
+        if (failed) {
+            throw new AuditException("The journal file is broken by a failed write");
+        }
+    }
+
+    private void encode(AuditEvent event, ByteBuffer buffer) {
+        if (formatter instanceof AppendableAuditEventFormatter) {
+            ((AppendableAuditEventFormatter) formatter).formatTo(event, buffer);
+        } else {
+            buffer.put(formatter.formatEvent(event).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * The checkpoint file has two slots, written alternately, each with a position and its CRC32C.
+     * A torn checkpoint write spoils only one slot.
+     */
+    private void writeCheckpoint(long synced) throws IOException {
+        ByteBuffer slot = ByteBuffer.allocate(CHECKPOINT_SLOT_SIZE);
+        slot.putLong(synced).putInt(Crc32c.compute(slot.array(), 0, 8));
+        slot.flip();
+        checkpointFile.getChannel().write(slot, (checkpoints++ & 1) * CHECKPOINT_SLOT_SIZE);
+    }
+
+    /**
+     * Returns the biggest valid checkpoint, not after the end of file, or the position of the first frame.
+     */
+    private static long readCheckpoint(RandomAccessFile checkpointFile, long fileSize) throws IOException {
+        long checkpoint = HEADER_SIZE;
+        ByteBuffer slot = ByteBuffer.allocate(CHECKPOINT_SLOT_SIZE);
+        for (int i = 0; i < 2; i++) {
+            slot.clear();
+            FileChannel channel = checkpointFile.getChannel();
+            while (slot.hasRemaining() && channel.read(slot, i * CHECKPOINT_SLOT_SIZE + slot.position()) > 0) {
+                // read the slot
+            }
+            if (slot.hasRemaining()) {
+                continue;
+            }
+
+            long value = slot.getLong(0);
+            if (slot.getInt(8) == Crc32c.compute(slot.array(), 0, 8) && value <= fileSize && value > checkpoint) {
+                checkpoint = value;
+            }
+        }
+
+        return checkpoint;
+    }
+
+    static RecoveryResult recover(FileChannel channel, long checkpoint) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            // new (or torn at creation) file
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            channel.force(true);
+
+            return new RecoveryResult(HEADER_SIZE, HEADER_SIZE, 0, 0, size);
+        }
+
+        checkHeader(channel);
+
+        // scan the valid frames after checkpoint
+        channel.position(checkpoint);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), DEFAULT_BATCH_SIZE));
+        long end = checkpoint;
+        long records = 0;
+        byte[] payload = new byte[1024];
+        while (end + FRAME_HEADER_SIZE <= size) {
+            int length;
+            int crc;
+            try {
+                length = in.readInt();
+                crc = in.readInt();
+                if (length < 0 || length > MAX_RECORD_SIZE || end + FRAME_HEADER_SIZE + length > size) {
+                    break;
+                }
+                if (payload.length < length) {
+                    payload = new byte[Math.max(length, payload.length * 2)];
+                }
+                in.readFully(payload, 0, length);
+            } catch (EOFException e) {
+                break;
+            }
+            if (Crc32c.compute(payload, 0, length) != crc) {
+                break;
+            }
+
+            end += FRAME_HEADER_SIZE + length;
+            records++;
+        }
+
+        long lost = 0;
+        if (end < size) {
+            lost = countFrames(channel, end, size);
+            channel.truncate(end);
+            channel.force(true);
+        }
+
+        return new RecoveryResult(checkpoint, end, records, lost, size - end);
+    }
+
+    /**
+     * Count the frames (valid or not) from the torn tail, following the lengths.
+     * A partial frame counts as one.
+     */
+    private static long countFrames(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        long count = 0;
+        while (position < size) {
+            count++;
+            length.clear();
+            if (channel.read(length, position) < 4) {
+                break;
+            }
+
+            int value = length.getInt(0);
+            if (value < 0 || value > MAX_RECORD_SIZE) {
+                break;
+            }
+            position += FRAME_HEADER_SIZE + value;
+        }
+
+        return count;
+    }
+
+    static void checkHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // read the header
+        }
+        if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+            throw new IOException("Not an audit journal file");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported audit journal version " + header.getInt(4));
+        }
+    }
+
+    /**
+     * What the recovery found on startup.
+     */
+    public static class RecoveryResult {
+
+        private final long scanStart;
+        private final long endPosition;
+        private final long recoveredRecords;
+        private final long lostRecords;
+        private final long truncatedBytes;
+
+        RecoveryResult(long scanStart, long endPosition, long recoveredRecords, long lostRecords, long truncatedBytes) {
+            this.scanStart = scanStart;
+            this.endPosition = endPosition;
+            this.recoveredRecords = recoveredRecords;
+            this.lostRecords = lostRecords;
+            this.truncatedBytes = truncatedBytes;
+        }
+
+        /**
+         * Returns the position where the scan started (the checkpoint).
+         *
+         * @return
+         */
+        public long getScanStart() {
+            return scanStart;
+        }
+
+        /**
+         * Returns the end of the last valid frame (the new size of file).
+         *
+         * @return
+         */
+        public long getEndPosition() {
+            return endPosition;
+        }
+
+        /**
+         * Returns the number of valid frames found after checkpoint.
+         *
+         * @return
+         */
+        public long getRecoveredRecords() {
+            return recoveredRecords;
+        }
+
+        /**
+         * Returns the number of (torn or corrupted) frames removed from the tail.
+         *
+         * @return
+         */
+        public long getLostRecords() {
+            return lostRecords;
+        }
+
+        public long getTruncatedBytes() {
+            return truncatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "RecoveryResult{" +
+                "scanStart=" + scanStart +
+                ", endPosition=" + endPosition +
+                ", recoveredRecords=" + recoveredRecords +
+                ", lostRecords=" + lostRecords +
+                ", truncatedBytes=" + truncatedBytes +
+                '}';
+        }
+
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static ro.fortsoft.auditor.JournalFileAuditor.MAGIC;
+import static ro.fortsoft.auditor.JournalFileAuditor.MAX_RECORD_SIZE;
+import static ro.fortsoft.auditor.JournalFileAuditor.VERSION;
+
+/**
+ * Reads the records (formatted events) written by {@link JournalFileAuditor}.
+ * Each record is verified with its CRC32C checksum.
+ * A partial frame at the end of stream (a write in progress) is treated as end of stream.
+ *
+ * The class is not thread safe.
+ *
+ * @author Decebal Suiu
+ */
+public class JournalReader implements Closeable {
+
+    private final DataInputStream in;
+
+    private byte[] payload = new byte[256];
+
+    /**
+     * Read the records from the beginning of a stream (the header is verified first).
+     *
+     * @param in
+     * @throws IOException
+     */
+    public JournalReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(in);
+
+        if (this.in.readInt() != MAGIC) {
+            throw new IOException("Not an audit journal file");
+        }
+        int version = this.in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported audit journal version " + version);
+        }
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return the record or {@code null} at the end of stream
+     * @throws IOException if a record is corrupted
+     */
+    public String read() throws IOException {
+        int length;
+        int crc;
+        try {
+            length = in.readInt();
+            crc = in.readInt();
+            if (length < 0 || length > MAX_RECORD_SIZE) {
+                throw new IOException("Corrupted journal record (length " + length + ")");
+            }
+            if (payload.length < length) {
+                payload = new byte[Math.max(length, payload.length * 2)];
+            }
+            in.readFully(payload, 0, length);
+        } catch (EOFException e) {
+            return null;
+        }
+
+        if (Crc32c.compute(payload, 0, length) != crc) {
+            throw new IOException("Corrupted journal record (bad checksum)");
+        }
+
+        return new String(payload, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Formats an audit event as a JSON object on a single line (JSON Lines), for example:
+ * {@code
+ * {"timestamp":1514073606000,"level":"INFO","action":"Login","username":"decebal","ip":"localhost","context":{"amount":10}}
+ * }
+ * The {@code null} fields and the empty context are omitted. The timestamp and the {@link Date} values
+ * are epoch milliseconds. The context values are written by type: numbers, booleans, strings,
+ * maps (objects), collections and arrays (arrays); other values are written as strings ({@link Object#toString()}).
+ *
+ * The {@link #formatTo(AuditEvent, ByteBuffer)} method writes the UTF-8 bytes directly in buffer;
+ * the field names are precomputed and the strings are escaped without intermediate objects.
+ *
+ * @author Decebal Suiu
+ */
+public class JsonAuditEventFormatter implements AppendableAuditEventFormatter {
+
+    private static final JsonAuditEventFormatter instance = new JsonAuditEventFormatter();
+
+    private static final int MAX_DEPTH = 16;
+
+    private static final Literal TIMESTAMP = new Literal("{\"timestamp\":");
+    private static final Literal LEVEL_INFO = new Literal(",\"level\":\"INFO\"");
+    private static final Literal LEVEL_ERROR = new Literal(",\"level\":\"ERROR\"");
+    private static final Literal ACTION = new Literal(",\"action\":");
+    private static final Literal USERNAME = new Literal(",\"username\":");
+    private static final Literal SESSION = new Literal(",\"session\":");
+    private static final Literal IP = new Literal(",\"ip\":");
+    private static final Literal CONTEXT = new Literal(",\"context\":");
+    private static final Literal ERROR_MESSAGE = new Literal(",\"errorMessage\":");
+    private static final Literal NULL = new Literal("null");
+    private static final Literal TRUE = new Literal("true");
+    private static final Literal FALSE = new Literal("false");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ThreadLocal<JsonWriter> writer = new ThreadLocal<JsonWriter>() {
+
+        @Override
+        protected JsonWriter initialValue() {
+            return new JsonWriter();
+        }
+
+    };
+
+    public static JsonAuditEventFormatter get() {
+        return instance;
+    }
+
+    @Override
+    public String formatEvent(AuditEvent event) {
+        StringBuilder sb = new StringBuilder(256);
+        try {
+            formatTo(event, sb);
+        } catch (IOException e) {
+            // cannot happen with a StringBuilder
+            throw new IllegalStateException(e);
+        }
+
+        return sb.toString();
+    }
+
+    @Override
+    public void formatTo(AuditEvent event, Appendable out) throws IOException {
+        JsonWriter writer = this.writer.get();
+        writer.reset(out, null);
+        try {
+            writeEvent(event, writer);
+        } finally {
+            writer.reset(null, null);
+        }
+    }
+
+    @Override
+    public void formatTo(AuditEvent event, ByteBuffer buffer) {
+        JsonWriter writer = this.writer.get();
+        writer.reset(null, buffer);
+        try {
+            writeEvent(event, writer);
+        } catch (IOException e) {
+            // cannot happen with a ByteBuffer (it throws only runtime exceptions)
+            throw new IllegalStateException(e);
+        } finally {
+            writer.reset(null, null);
+        }
+    }
+
+    private void writeEvent(AuditEvent event, JsonWriter writer) throws IOException {
+        writer.literal(TIMESTAMP);
+        writer.number(event.getTimestamp());
+        writer.literal(event.getLevel() == AuditEvent.ERROR ? LEVEL_ERROR : LEVEL_INFO);
+        writeField(ACTION, event.getAction(), writer);
+        writeField(USERNAME, event.getUsername(), writer);
+        writeField(SESSION, event.getSession(), writer);
+        writeField(IP, event.getIp(), writer);
+        if (event.hasContext()) {
+            writer.literal(CONTEXT);
+            writeMap(event.getContext(), writer, 0);
+        }
+        writeField(ERROR_MESSAGE, event.getErrorMessage(), writer);
+        writer.ascii('}');
+    }
+
+    private static void writeField(Literal name, String value, JsonWriter writer) throws IOException {
+        if (value != null) {
+            writer.literal(name);
+            writer.string(value);
+        }
+    }
+
+    private static void writeValue(Object value, JsonWriter writer, int depth) throws IOException {
+        if (value == null) {
+            writer.literal(NULL);
+        } else if (value instanceof CharSequence) {
+            writer.string((CharSequence) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writer.number(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                // not allowed in JSON
+                writer.string(value.toString());
+            } else {
+                writer.ascii(value.toString());
+            }
+        } else if (value instanceof Number) {
+            // BigDecimal, BigInteger, AtomicLong, ...
+            writer.ascii(value.toString());
+        } else if (value instanceof Boolean) {
+            writer.literal((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Date) {
+            writer.number(((Date) value).getTime());
+        } else if (depth >= MAX_DEPTH) {
+            writer.string(value.toString());
+        } else if (value instanceof Map) {
+            writeMap((Map<?, ?>) value, writer, depth + 1);
+        } else if (value instanceof Collection) {
+            writer.ascii('[');
+            Iterator<?> it = ((Collection<?>) value).iterator();
+            while (it.hasNext()) {
+                writeValue(it.next(), writer, depth + 1);
+                if (it.hasNext()) {
+                    writer.ascii(',');
+                }
+            }
+            writer.ascii(']');
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            writer.ascii('[');
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) {
+                    writer.ascii(',');
+                }
+                writeValue(array[i], writer, depth + 1);
+            }
+            writer.ascii(']');
+        } else {
+            writer.string(value.toString());
+        }
+    }
+
+    private static void writeMap(Map<?, ?> map, JsonWriter writer, int depth) throws IOException {
+        writer.ascii('{');
+        Iterator<? extends Map.Entry<?, ?>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<?, ?> entry = it.next();
+            Object key = entry.getKey();
+            writer.string((key instanceof CharSequence) ? (CharSequence) key : String.valueOf(key));
+            writer.ascii(':');
+            writeValue(entry.getValue(), writer, depth);
+            if (it.hasNext()) {
+                writer.ascii(',');
+            }
+        }
+        writer.ascii('}');
+    }
+
+    /**
+     * An ASCII text with its bytes computed once.
+     */
+    private static class Literal {
+
+        private final String text;
+        private final byte[] bytes;
+
+        private Literal(String text) {
+            this.text = text;
+            bytes = text.getBytes(StandardCharsets.US_ASCII);
+        }
+
+    }
+
+    /**
+     * Writes JSON tokens to an {@link Appendable} or (UTF-8) to a {@link ByteBuffer}.
+     * It's reused by a thread.
+     */
+    private static class JsonWriter {
+
+        private final ByteBufferAppendable utf8 = new ByteBufferAppendable();
+        private final char[] digits = new char[20];
+
+        private Appendable out;
+        private ByteBuffer buffer;
+
+        private void reset(Appendable out, ByteBuffer buffer) {
+            this.out = out;
+            this.buffer = buffer;
+            if (buffer != null) {
+                utf8.reset(buffer);
+            }
+        }
+
+        private void literal(Literal literal) throws IOException {
+            if (buffer != null) {
+                buffer.put(literal.bytes);
+            } else {
+                out.append(literal.text);
+            }
+        }
+
+        private void ascii(char c) throws IOException {
+            if (buffer != null) {
+                buffer.put((byte) c);
+            } else {
+                out.append(c);
+            }
+        }
+
+        private void ascii(String text) throws IOException {
+            if (buffer != null) {
+                for (int i = 0; i < text.length(); i++) {
+                    buffer.put((byte) text.charAt(i));
+                }
+            } else {
+                out.append(text);
+            }
+        }
+
+        private void number(long value) throws IOException {
+            if (value == Long.MIN_VALUE) {
+                ascii(Long.toString(value));
+                return;
+            }
+
+            if (value < 0) {
+                ascii('-');
+                value = -value;
+            }
+            int position = digits.length;
+            do {
+                digits[--position] = (char) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+            for (int i = position; i < digits.length; i++) {
+                ascii(digits[i]);
+            }
+        }
+
+        private void string(CharSequence text) throws IOException {
+            ascii('"');
+            int length = text.length();
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                    // fast path, ASCII without escape
+                    if (buffer != null) {
+                        buffer.put((byte) c);
+                    }
+                    continue;
+                }
+
+                if (buffer == null && start < i) {
+                    out.append(text, start, i);
+                }
+                if (c < 0x80) {
+                    escape(c);
+                } else if (buffer == null) {
+                    out.append(c);
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    utf8.append(c);
+                    utf8.append(text.charAt(++i));
+                } else if (Character.isSurrogate(c)) {
+                    // unpaired
+                    buffer.put((byte) '?');
+                } else {
+                    utf8.append(c);
+                }
+                start = i + 1;
+            }
+            if (buffer == null && start < length) {
+                out.append(text, start, length);
+            }
+            ascii('"');
+        }
+
+        private void escape(char c) throws IOException {
+            switch (c) {
+                case '"':
+                    ascii('\\');
+                    ascii('"');
+                    break;
+                case '\\':
+                    ascii('\\');
+                    ascii('\\');
+                    break;
+                case '\n':
+                    ascii('\\');
+                    ascii('n');
+                    break;
+                case '\r':
+                    ascii('\\');
+                    ascii('r');
+                    break;
+                case '\t':
+                    ascii('\\');
+                    ascii('t');
+                    break;
+                default:
+                    ascii('\\');
+                    ascii('u');
+                    ascii('0');
+                    ascii('0');
+                    ascii(HEX[c >> 4]);
+                    ascii(HEX[c & 0xF]);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A low overhead histogram of latencies (nanoseconds), with log-linear buckets: each power of two
+ * is split in {@code 8} linear sub buckets, so the relative error of a percentile is at most 12.5%.
+ * Recording is a single atomic add in the stripe of the current thread (see {@link StripedCounter}).
+ *
+ * @author Decebal Suiu
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray[] stripes;
+
+    public LatencyHistogram() {
+        stripes = new AtomicLongArray[StripedCounter.STRIPES];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * @param nanos the latency in nanoseconds (negative values are recorded as zero)
+     */
+    public void record(long nanos) {
+        stripes[StripedCounter.stripe()].getAndIncrement(bucket(Math.max(0, nanos)));
+    }
+
+    /**
+     * Returns a copy of the current counts, merged from all stripes.
+     *
+     * @return
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+
+        return new Snapshot(counts);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest value that falls in the bucket.
+     *
+     * @param bucket
+     * @return
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * An immutable view of a {@link LatencyHistogram}.
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+
+        Snapshot(long[] counts) {
+            this.counts = counts;
+
+            long count = 0;
+            for (long value : counts) {
+                count += value;
+            }
+            this.count = count;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the latency (nanoseconds) under which the given percent of values fall.
+         *
+         * @param percentile a value between 0 and 100
+         * @return the upper bound of the bucket, or 0 if the histogram is empty
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100);
+            rank = Math.max(1, rank);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+
+            return upperBound(counts.length - 1);
+        }
+
+        public long getP50() {
+            return getPercentile(50);
+        }
+
+        public long getP99() {
+            return getPercentile(99);
+        }
+
+        public long getP999() {
+            return getPercentile(99.9);
+        }
+
+        public long getMax() {
+            return getPercentile(100);
+        }
+
+    }
+
+}
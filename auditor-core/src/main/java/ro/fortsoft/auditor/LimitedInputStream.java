@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that stops after a number of bytes.
+ * It doesn't close the underlying stream (the file is closed by owner).
+ *
+ * @author Decebal Suiu
+ */
+final class LimitedInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    LimitedInputStream(InputStream in, long limit) {
+        super(in);
+
+        remaining = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+
+        int b = super.read();
+        if (b >= 0) {
+            remaining--;
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+
+        int count = super.read(b, off, (int) Math.min(len, remaining));
+        if (count > 0) {
+            remaining -= count;
+        }
+
+        return count;
+    }
+
+    @Override
+    public void close() {
+        // the underlying stream is closed by owner
+    }
+
+}
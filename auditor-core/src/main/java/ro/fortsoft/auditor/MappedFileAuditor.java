@@ -0,0 +1,328 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory mapped file based {@link Auditor}.
+ * Events are formatted (one per line, UTF-8) in a per thread buffer and copied into fixed size
+ * {@link MappedByteBuffer} segments ({@code audit.log.000000}, {@code audit.log.000001}, ...).
+ * The space for an event is claimed with an atomic position counter, so concurrent writers
+ * don't need a lock and there is no system call on the {@link #audit(AuditEvent)} path.
+ *
+ * When a segment is full, the writer that crossed the boundary switches to the next segment, that is
+ * pre-allocated (and its pages touched) by a background thread.
+ * The full segment is forced to disk and truncated to its real size in background.
+ * If truncation is not possible (some platforms don't allow to truncate a mapped file) the segment
+ * remains padded with zero bytes.
+ *
+ * The class is thread safe. Call {@link #close()} on shutdown application.
+ *
+ * @author Decebal Suiu
+ */
+public class MappedFileAuditor implements Auditor {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int PAGE_SIZE = 4096;
+
+    // the position of a retired segment, far from overflow when the writers still add to it
+    private static final long RETIRED = Long.MAX_VALUE / 2;
+
+    private final File file;
+    private final AuditEventFormatter formatter;
+    private final int segmentSize;
+    private final ExecutorService executorService;
+    private final ThreadLocal<ThreadContext> threadContext;
+
+    private volatile Segment current;
+    private volatile Future<Segment> next;
+    private volatile boolean closed;
+
+    public MappedFileAuditor(File file) throws IOException {
+        this(file, SimpleAuditEventFormatter.get(), DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param file the base name of segments
+     * @param formatter
+     * @param segmentSize the size in bytes of one segment (maximum 1 GB)
+     * @throws IOException
+     */
+    public MappedFileAuditor(File file, AuditEventFormatter formatter, int segmentSize) throws IOException {
+        if (segmentSize <= 0 || segmentSize > (1 << 30)) {
+            throw new IllegalArgumentException("Segment size must be between 1 byte and 1 GB");
+        }
+
+        this.file = file;
+        this.formatter = formatter;
+        this.segmentSize = segmentSize;
+
+        threadContext = new ThreadLocal<ThreadContext>() {
+
+            @Override
+            protected ThreadContext initialValue() {
+                return new ThreadContext();
+            }
+
+        };
+        executorService = Executors.newSingleThreadExecutor(new DaemonThreadFactory("mapped-file-auditor"));
+
+        current = createSegment(SegmentFiles.lastIndex(file) + 1);
+        prepareNext(current.index + 1);
+    }
+
+    @Override
+    public void audit(AuditEvent event) {
+        ThreadContext context = threadContext.get();
+        ByteBuffer record = context.encode(event);
+        int length = record.remaining();
+        if (length > segmentSize) {
+            throw new AuditException("The event (" + length + " bytes) is bigger than segment size");
+        }
+
+        while (!closed) {
+            Segment segment = current;
+            long position = segment.position.getAndAdd(length);
+            if (position + length <= segmentSize) {
+                context.view(segment).position((int) position);
+                context.view.put(record);
+                segment.committed.addAndGet(length);
+                return;
+            }
+
+            if (position < RETIRED) {
+                // the claim was made before the segment was retired, so Retire waits for it
+                segment.skipped.addAndGet(length);
+            }
+
+            if (position <= segmentSize) {
+                // this writer crossed the boundary, so it's responsible for roll
+                roll(segment);
+            } else {
+                // another writer rolls the segment
+                while (current == segment && !closed) {
+                    Thread.yield();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write all events to disk, stop the background thread and close the last segment.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        retire(current);
+        executorService.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    Segment unused = next.get();
+                    unused.channel.close();
+                    unused.file.delete();
+                } catch (Exception e) {
+                    // ignore, nothing to clean up
+                }
+            }
+
+        });
+        executorService.shutdown();
+        try {
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void roll(Segment segment) {
+        if (closed) {
+            return;
+        }
+
+        Segment nextSegment;
+        try {
+            nextSegment = next.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AuditException("Interrupted while waiting for the next segment", e);
+        } catch (ExecutionException e) {
+            throw new AuditException("Cannot create the next segment", e.getCause());
+        }
+
+        current = nextSegment;
+        retire(segment);
+        prepareNext(nextSegment.index + 1);
+    }
+
+    /**
+     * Poison the position counter (the next writers see the segment as full)
+     * and retire the segment when the writers that claimed space in it are done.
+     */
+    private void retire(Segment segment) {
+        long claimed = segment.position.getAndSet(RETIRED);
+        executorService.submit(new Retire(segment, claimed));
+    }
+
+    private void prepareNext(final long index) {
+        next = executorService.submit(new Callable<Segment>() {
+
+            @Override
+            public Segment call() throws Exception {
+                Segment segment = createSegment(index);
+                // touch the pages, so the writers don't pay the page faults
+                for (int i = 0; i < segmentSize; i += PAGE_SIZE) {
+                    segment.buffer.put(i, (byte) 0);
+                }
+
+                return segment;
+            }
+
+        });
+    }
+
+    private Segment createSegment(long index) throws IOException {
+        File segmentFile = SegmentFiles.segment(file, index);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(segmentFile, "rw");
+        try {
+            randomAccessFile.setLength(segmentSize);
+            FileChannel channel = randomAccessFile.getChannel();
+
+            return new Segment(index, segmentFile, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private static class Segment {
+
+        private final long index;
+        private final File file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final AtomicLong position = new AtomicLong();
+        // the bytes copied by the claims that fit in segment
+        private final AtomicLong committed = new AtomicLong();
+        // the bytes of the claims that didn't fit in segment
+        private final AtomicLong skipped = new AtomicLong();
+
+        private Segment(long index, File file, FileChannel channel, MappedByteBuffer buffer) {
+            this.index = index;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+    }
+
+    /**
+     * Waits for the writers still copying in the segment (until all claimed bytes are committed or skipped),
+     * forces the segment to disk and truncates the segment file to its real size.
+     */
+    private static class Retire implements Runnable {
+
+        private final Segment segment;
+        private final long claimed;
+
+        private Retire(Segment segment, long claimed) {
+            this.segment = segment;
+            this.claimed = claimed;
+        }
+
+        @Override
+        public void run() {
+            while (segment.committed.get() + segment.skipped.get() < claimed) {
+                Thread.yield();
+            }
+
+            segment.buffer.force();
+            try {
+                try {
+                    // the claims that fit are contiguous from the segment start
+                    segment.channel.truncate(segment.committed.get());
+                } catch (IOException e) {
+                    // the segment remains padded with zero bytes
+                }
+                segment.channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+    }
+
+    /**
+     * The per thread state: the encoding buffer and a view over the current segment
+     * (absolute bulk put is not available in {@link ByteBuffer}).
+     */
+    private class ThreadContext {
+
+        private ByteBuffer record = ByteBuffer.allocate(1024);
+        private Segment segment;
+        private ByteBuffer view;
+
+        private ByteBuffer encode(AuditEvent event) {
+            while (true) {
+                record.clear();
+                try {
+                    if (formatter instanceof AppendableAuditEventFormatter) {
+                        ((AppendableAuditEventFormatter) formatter).formatTo(event, record);
+                    } else {
+                        record.put(formatter.formatEvent(event).getBytes(StandardCharsets.UTF_8));
+                    }
+                    record.put((byte) '\n');
+                    record.flip();
+
+                    return record;
+                } catch (BufferOverflowException e) {
+                    record = ByteBuffer.allocate(record.capacity() * 2);
+                }
+            }
+        }
+
+        private ByteBuffer view(Segment segment) {
+            if (this.segment != segment) {
+                this.segment = segment;
+                view = segment.buffer.duplicate();
+            }
+
+            return view;
+        }
+
+    }
+
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Auditor} that streams the events to a remote collector over TCP.
+ * Each event is sent as a frame: the length of payload (4 bytes, big endian) followed by
+ * the formatted event (UTF-8). The default formatter is {@link JsonAuditEventFormatter}.
+ *
+ * {@link #audit(AuditEvent)} only adds the event to a bounded in-memory backlog; when the backlog is full
+ * the oldest event is dropped, so a slow or missing network never delays the caller.
+ * A worker thread packs many frames in a batch and writes it with a non-blocking {@link SocketChannel}.
+ * When the connection is lost, the worker reconnects with an exponential backoff and continues with
+ * the first frame not completely written, followed by the events accumulated in backlog.
+ * The frames already accepted by the local TCP stack when the connection is lost cannot be replayed.
+ *
+ * An event that the formatter cannot encode is skipped and an unexpected error while connecting is handled
+ * like a failed connection, so the worker thread never dies; see {@link #getFailureCount()},
+ * {@link #getLastFailure()} and {@link #isHealthy()}.
+ *
+ * Call {@link #close()} on shutdown application, to send the backlog (for at most {@link #CLOSE_TIMEOUT}
+ * milliseconds) and stop the worker thread.
+ *
+ * @author Decebal Suiu
+ */
+public class NetworkAuditor implements Auditor {
+
+    public static final int DEFAULT_BACKLOG_SIZE = 8192;
+    public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+    public static final long CLOSE_TIMEOUT = 5000;
+    public static final long CONNECT_TIMEOUT = 5000;
+
+    private static final long MIN_BACKOFF = 100;
+    private static final long MAX_BACKOFF = 30000;
+    private static final int FRAME_HEADER_SIZE = 4;
+
+    private final SocketAddress address;
+    private final AuditEventFormatter formatter;
+    private final RingBuffer<AuditEvent> backlog;
+    private final ByteBuffer batch;
+    private final ExecutorService executorService;
+    private final AtomicLong oversized = new AtomicLong();
+
+    private volatile boolean closed;
+    private volatile boolean connected;
+    private volatile long failureCount;
+    private volatile Throwable lastFailure;
+    private volatile boolean lastEventFailed;
+
+    // used only by the worker thread
+    private Selector selector;
+    private SocketChannel channel;
+    private AuditEvent carry;
+    private long backoff = MIN_BACKOFF;
+    private long nextConnectTime;
+    private long connectDeadline;
+
+    public NetworkAuditor(String host, int port) {
+        this(new InetSocketAddress(host, port), JsonAuditEventFormatter.get(), DEFAULT_BACKLOG_SIZE, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param address the collector address
+     * @param formatter
+     * @param backlogSize the number of events kept in memory while they wait to be sent
+     * @param batchSize the size in bytes of a batch (a write)
+     */
+    public NetworkAuditor(SocketAddress address, AuditEventFormatter formatter, int backlogSize, int batchSize) {
+        this.address = address;
+        this.formatter = formatter;
+        backlog = new RingBuffer<>(backlogSize);
+        batch = ByteBuffer.allocateDirect(batchSize);
+        batch.flip(); // empty
+
+        executorService = Executors.newSingleThreadExecutor(new DaemonThreadFactory("network-auditor"));
+        executorService.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    sendEvents();
+                } finally {
+                    disconnect();
+                    closeQuietly(selector);
+                }
+            }
+
+        });
+    }
+
+    @Override
+    public void audit(AuditEvent event) {
+        if (closed) {
+            return;
+        }
+
+        backlog.put(event, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * The collector doesn't acknowledge the frames, so the future is completed when the event is added
+     * to backlog (it fails if the auditor is closed); it doesn't mean that the event was delivered.
+     *
+     * @param event
+     * @return
+     */
+    @Override
+    public CompletableFuture<Void> auditAsync(AuditEvent event) {
+        if (closed) {
+            return Acknowledgements.failed(new AuditException("The auditor is closed"));
+        }
+
+        backlog.put(event, OverflowPolicy.DROP_OLDEST);
+
+        return CompletableFuture.completedFuture(null);
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Returns the number of events skipped because the formatter failed.
+     *
+     * @return
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Returns the last error: of the formatter, of a connection or of a write.
+     *
+     * @return
+     */
+    public Throwable getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Returns {@code false} if the auditor is not connected or if the last event could not be encoded.
+     *
+     * @return
+     */
+    public boolean isHealthy() {
+        return connected && !lastEventFailed;
+    }
+
+    /**
+     * Returns the number of events waiting in backlog.
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return backlog.size();
+    }
+
+    /**
+     * Returns the number of events dropped because the backlog was full or because the event is bigger than a batch.
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return backlog.getDroppedCount() + oversized.get();
+    }
+
+    /**
+     * Send the backlog (wait at most {@link #CLOSE_TIMEOUT} milliseconds) and close the connection.
+     */
+    public void close() {
+        closed = true;
+        backlog.wakeUpConsumer();
+        executorService.shutdown();
+        try {
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendEvents() {
+        long closeDeadline = Long.MAX_VALUE;
+        while (true) {
+            boolean pending = batch.hasRemaining() || carry != null || !backlog.isEmpty();
+            if (closed) {
+                if (closeDeadline == Long.MAX_VALUE) {
+                    closeDeadline = System.currentTimeMillis() + CLOSE_TIMEOUT;
+                }
+                if (!pending || System.currentTimeMillis() >= closeDeadline) {
+                    break;
+                }
+            }
+
+            try {
+                if (channel == null) {
+                    connect();
+                } else if (!connected) {
+                    selector.select(100);
+                    selector.selectedKeys().clear();
+                    finishConnect();
+                } else if (batch.hasRemaining() || fillBatch()) {
+                    write();
+                } else {
+                    backlog.awaitNotEmpty(50, TimeUnit.MILLISECONDS);
+                    // a closed connection is detected by read
+                    if (selector.selectNow() > 0) {
+                        readAndDiscard();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // a RuntimeException is a failed connection too (for example an unresolved address)
+                lastFailure = e;
+                disconnect();
+            }
+        }
+    }
+
+    private void connect() throws IOException {
+        long now = System.currentTimeMillis();
+        if (now < nextConnectTime) {
+            // the backlog is not consumed, so this is only a short sleep
+            backlog.awaitNotEmpty(Math.min(nextConnectTime - now, 100), TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        nextConnectTime = now + backoff;
+        connectDeadline = now + CONNECT_TIMEOUT;
+        backoff = Math.min(backoff * 2, MAX_BACKOFF);
+
+        if (selector == null) {
+            selector = Selector.open();
+        }
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        if (channel.connect(address)) {
+            connected();
+        } else {
+            channel.register(selector, SelectionKey.OP_CONNECT);
+        }
+    }
+
+    private void finishConnect() throws IOException {
+        if (channel.finishConnect()) {
+            connected();
+        } else if (System.currentTimeMillis() >= connectDeadline) {
+            throw new IOException("Cannot connect to " + address);
+        }
+    }
+
+    private void connected() throws IOException {
+        channel.register(selector, SelectionKey.OP_READ);
+        connected = true;
+        backoff = MIN_BACKOFF;
+    }
+
+    private void disconnect() {
+        connected = false;
+        if (channel != null) {
+            closeQuietly(channel);
+            channel = null;
+        }
+        if (selector != null) {
+            try {
+                // remove the cancelled key
+                selector.selectNow();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        // continue with the first frame not completely written
+        int written = batch.position();
+        int frameStart = 0;
+        while (frameStart < written) {
+            int frameEnd = frameStart + FRAME_HEADER_SIZE + batch.getInt(frameStart);
+            if (frameEnd > written) {
+                break;
+            }
+            frameStart = frameEnd;
+        }
+        batch.position(frameStart);
+    }
+
+    /**
+     * Encode events from backlog in batch, as many as fit.
+     *
+     * @return {@code true} if the batch is not empty
+     */
+    private boolean fillBatch() {
+        batch.clear();
+        while (true) {
+            AuditEvent event = (carry != null) ? carry : backlog.poll();
+            carry = null;
+            if (event == null) {
+                break;
+            }
+
+            int start = batch.position();
+            try {
+                batch.position(start + FRAME_HEADER_SIZE);
+                encode(event);
+                batch.putInt(start, batch.position() - start - FRAME_HEADER_SIZE);
+                lastEventFailed = false;
+            } catch (BufferOverflowException | IllegalArgumentException e) {
+                batch.position(start);
+                if (start == 0) {
+                    // bigger than a batch
+                    oversized.incrementAndGet();
+                } else {
+                    carry = event;
+                    break;
+                }
+            } catch (RuntimeException e) {
+                // the formatter failed, skip the event
+                batch.position(start);
+                failureCount++; // single writer (the worker thread)
+                lastFailure = e;
+                lastEventFailed = true;
+            }
+        }
+        batch.flip();
+
+        return batch.hasRemaining();
+    }
+
+    private void encode(AuditEvent event) {
+        if (formatter instanceof AppendableAuditEventFormatter) {
+            ((AppendableAuditEventFormatter) formatter).formatTo(event, batch);
+        } else {
+            batch.put(formatter.formatEvent(event).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void write() throws IOException {
+        if (channel.write(batch) == 0) {
+            // the socket buffer is full, wait until it's writable
+            SelectionKey key = channel.keyFor(selector);
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            if (selector.select(100) > 0) {
+                if (key.isReadable()) {
+                    readAndDiscard();
+                }
+                selector.selectedKeys().clear();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void readAndDiscard() throws IOException {
+        selector.selectedKeys().clear();
+        ByteBuffer discard = ByteBuffer.allocate(256);
+        while (true) {
+            int count = channel.read(discard);
+            if (count < 0) {
+                throw new IOException("Connection closed by collector");
+            }
+            if (count == 0) {
+                break;
+            }
+            discard.clear();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+}
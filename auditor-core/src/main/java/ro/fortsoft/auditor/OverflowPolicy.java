@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+/**
+ * What an asynchronous {@link Auditor} does with a new event when its buffer is full.
+ *
+ * @author Decebal Suiu
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The caller waits until the writer thread makes room in the buffer.
+     */
+    BLOCK,
+
+    /**
+     * The caller spins for a short while (good for short bursts) and then it waits like {@link #BLOCK}.
+     */
+    SPIN_THEN_BLOCK,
+
+    /**
+     * The new event is discarded.
+     */
+    DROP_NEWEST,
+
+    /**
+     * The oldest event from the buffer is discarded to make room for the new event.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The new event is written to an append-only journal on disk, and the writer thread replays it
+     * (in order) when it catches up. The caller never waits and no event is lost.
+     * Supported by {@link AsyncFileAuditor}; the other auditors handle it like {@link #BLOCK}.
+     */
+    SPILL
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+/**
+ * {@link Auditor} that publishes the events to in-process subscribers (for example a live dashboard),
+ * and optionally passes them to another auditor.
+ * Each subscriber has its own bounded lock-free buffer, a filter evaluated (on the producer thread)
+ * before the event is added to buffer, and a {@link SlowConsumerPolicy}.
+ * The producer never waits for a subscriber, so a slow subscriber doesn't slow the producer
+ * or the other subscribers.
+ *
+ * Example:
+ * {@code
+ * PublishingAuditor auditor = new PublishingAuditor(new AsyncFileAuditor(file));
+ * Subscription subscription = auditor.subscribe(event -> event.getLevel() == AuditEvent.ERROR, 1024, SlowConsumerPolicy.DROP);
+ * ...
+ * AuditEvent event = subscription.poll(1, TimeUnit.SECONDS);
+ * }
+ *
+ * The class is thread safe.
+ *
+ * @author Decebal Suiu
+ */
+public class PublishingAuditor implements Auditor {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
+    private final Auditor auditor;
+
+    // copy on write, the producers read it without lock
+    private volatile Subscription[] subscriptions = NO_SUBSCRIPTIONS;
+
+    public PublishingAuditor() {
+        this(null);
+    }
+
+    /**
+     * @param auditor the auditor that receives all events before the subscribers, or {@code null}
+     */
+    public PublishingAuditor(Auditor auditor) {
+        this.auditor = auditor;
+    }
+
+    @Override
+    public void audit(AuditEvent event) {
+        if (auditor != null) {
+            auditor.audit(event);
+        }
+
+        publish(event);
+    }
+
+    /**
+     * Forward the event to the wrapped auditor and publish it to subscribers.
+     *
+     * @param event
+     * @return the future of the wrapped auditor (a completed future if there is no wrapped auditor)
+     */
+    @Override
+    public CompletableFuture<Void> auditAsync(AuditEvent event) {
+        CompletableFuture<Void> future = (auditor != null) ? auditor.auditAsync(event) : CompletableFuture.<Void>completedFuture(null);
+        publish(event);
+
+        return future;
+    }
+
+    /**
+     * Subscribe to all events, with a buffer of {@link #DEFAULT_BUFFER_SIZE} events and {@link SlowConsumerPolicy#DROP}.
+     *
+     * @return
+     */
+    public Subscription subscribe() {
+        return subscribe(null, DEFAULT_BUFFER_SIZE, SlowConsumerPolicy.DROP);
+    }
+
+    /**
+     * @param filter the events accepted by subscriber, or {@code null} for all events
+     * @param bufferSize the number of events that can wait (rounded up to a power of two)
+     * @param policy what happens when the buffer is full
+     * @return
+     */
+    public Subscription subscribe(Predicate<AuditEvent> filter, int bufferSize, SlowConsumerPolicy policy) {
+        Subscription subscription = new Subscription(this, filter, bufferSize, policy);
+        synchronized (this) {
+            Subscription[] subscriptions = Arrays.copyOf(this.subscriptions, this.subscriptions.length + 1);
+            subscriptions[subscriptions.length - 1] = subscription;
+            this.subscriptions = subscriptions;
+        }
+
+        return subscription;
+    }
+
+    /**
+     * Returns the number of connected subscribers.
+     *
+     * @return
+     */
+    public int getSubscriberCount() {
+        return subscriptions.length;
+    }
+
+    private void publish(AuditEvent event) {
+        for (Subscription subscription : subscriptions) {
+            subscription.publish(event);
+        }
+    }
+
+    synchronized void unsubscribe(Subscription subscription) {
+        Subscription[] subscriptions = this.subscriptions;
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i] == subscription) {
+                Subscription[] copy = new Subscription[subscriptions.length - 1];
+                System.arraycopy(subscriptions, 0, copy, 0, i);
+                System.arraycopy(subscriptions, i + 1, copy, i, copy.length - i);
+                this.subscriptions = copy.length > 0 ? copy : NO_SUBSCRIPTIONS;
+                return;
+            }
+        }
+    }
+
+}
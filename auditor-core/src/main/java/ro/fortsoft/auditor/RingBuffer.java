@@ -0,0 +1,476 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, pre-sized, lock-free ring buffer (multi producer, multi consumer).
+ * Each slot has a sequence number that tells producers and consumers if the slot
+ * is free or published, so the fast path is a single CAS on the tail (producers)
+ * or on the head (consumers).
+ *
+ * A lock is used only on the slow path, when a producer must wait for free space
+ * ({@link OverflowPolicy#BLOCK} and {@link OverflowPolicy#SPIN_THEN_BLOCK}).
+ * The consumer waits for new elements by parking, see {@link #awaitNotEmpty(long, TimeUnit)}.
+ * {@link #drainTo(Object[])} and the drop of the oldest element with an acknowledgement take another lock,
+ * once per batch, so the consumer never acknowledges a dropped element.
+ *
+ * @author Decebal Suiu
+ */
+final class RingBuffer<E> {
+
+    private static final int SPIN_TRIES = 128;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final ReentrantLock takeLock = new ReentrantLock();
+    private final AtomicInteger waitingProducers = new AtomicInteger();
+    private volatile Thread waitingConsumer;
+    private volatile boolean closed;
+
+    /**
+     * The capacity is rounded up to the next power of two (at least two slots, a slot
+     * sequence must be able to tell "published" from "free for the next lap").
+     *
+     * @param capacity
+     */
+    RingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        this.capacity = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = this.capacity - 1;
+        elements = new AtomicReferenceArray<>(this.capacity);
+        sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an element if there is free space. It never waits.
+     *
+     * @param element
+     * @return {@code true} if the element was added
+     */
+    boolean offer(E element) {
+        return offer(element, null, null);
+    }
+
+    /**
+     * Add an element if there is free space and register its acknowledgement, before the element
+     * is published (so the consumer cannot take the element before the future exists).
+     * The future waits for the position after the element.
+     *
+     * @param element
+     * @param acknowledgements
+     * @param future
+     * @return {@code true} if the element was added
+     */
+    boolean offer(E element, Acknowledgements acknowledgements, CompletableFuture<Void> future) {
+        if (closed) {
+            return false;
+        }
+
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    if (acknowledgements != null) {
+                        acknowledgements.add(position + 1, future);
+                    }
+                    elements.lazySet(index, element);
+                    sequences.lazySet(index, position + 1);
+                    signalConsumer();
+
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // full
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Add as many elements as fit in the free space, with a single CAS on the tail. It never waits.
+     *
+     * @param batch
+     * @param offset
+     * @param length
+     * @return the number of elements added (from {@code offset})
+     */
+    int offer(E[] batch, int offset, int length) {
+        if (closed) {
+            return 0;
+        }
+
+        while (true) {
+            long position = tail.get();
+            long difference = sequences.get((int) (position & mask)) - position;
+            if (difference < 0) {
+                // full
+                return 0;
+            }
+            if (difference > 0) {
+                // another producer took the slot
+                continue;
+            }
+
+            int count = 1;
+            while (count < length && sequences.get((int) ((position + count) & mask)) == position + count) {
+                count++;
+            }
+            if (tail.compareAndSet(position, position + count)) {
+                for (int i = 0; i < count; i++) {
+                    int index = (int) ((position + i) & mask);
+                    elements.lazySet(index, batch[offset + i]);
+                    sequences.lazySet(index, position + i + 1);
+                }
+                signalConsumer();
+
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Add a batch of elements applying the overflow policy when the buffer is full.
+     * The elements are added in bulk (see {@link #offer(Object[], int, int)}) while there is free space.
+     *
+     * @param batch
+     * @param offset
+     * @param length
+     * @param policy
+     * @return the number of elements added
+     */
+    int putAll(E[] batch, int offset, int length, OverflowPolicy policy) {
+        int added = 0;
+        int end = offset + length;
+        while (offset < end) {
+            int count = offer(batch, offset, end - offset);
+            if (count == 0) {
+                count = 1;
+                if (put(batch[offset], policy)) {
+                    added++;
+                }
+            } else {
+                added += count;
+            }
+            offset += count;
+        }
+
+        return added;
+    }
+
+    /**
+     * Add an element applying the overflow policy when the buffer is full.
+     *
+     * @param element
+     * @param policy
+     * @return {@code false} if the element was dropped (or the waiting thread was interrupted)
+     */
+    boolean put(E element, OverflowPolicy policy) {
+        return put(element, policy, null, null);
+    }
+
+    /**
+     * Add an element applying the overflow policy and register its acknowledgement before the element
+     * is published (see {@link #offer(Object, Acknowledgements, CompletableFuture)}).
+     *
+     * @param element
+     * @param policy
+     * @param acknowledgements
+     * @param future
+     * @return {@code false} if the element was dropped (the future is not registered)
+     */
+    boolean put(E element, OverflowPolicy policy, Acknowledgements acknowledgements, CompletableFuture<Void> future) {
+        if (offer(element, acknowledgements, future)) {
+            return true;
+        }
+        if (closed) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        switch (policy) {
+            case DROP_NEWEST:
+                dropped.incrementAndGet();
+                return false;
+            case DROP_OLDEST:
+                while (!offer(element, acknowledgements, future)) {
+                    if (closed) {
+                        dropped.incrementAndGet();
+                        return false;
+                    }
+                    dropOldest(acknowledgements);
+                }
+                return true;
+            case SPIN_THEN_BLOCK:
+                for (int i = 0; i < SPIN_TRIES; i++) {
+                    if (offer(element, acknowledgements, future)) {
+                        return true;
+                    }
+                    if (i > SPIN_TRIES / 2) {
+                        Thread.yield();
+                    }
+                }
+                return putAndWait(element, acknowledgements, future);
+            default:
+                return putAndWait(element, acknowledgements, future);
+        }
+    }
+
+    /**
+     * Retrieve and remove the oldest element.
+     *
+     * @return the element or {@code null} if the buffer is empty
+     */
+    E poll() {
+        E element = take();
+        if (element != null) {
+            signalProducers();
+        }
+
+        return element;
+    }
+
+    /**
+     * Move up to {@code batch.length} elements in the supplied array.
+     * The waiting producers (if any) are signaled once per batch.
+     *
+     * @param batch
+     * @return the number of elements moved
+     */
+    int drainTo(E[] batch) {
+        int count = 0;
+        takeLock.lock();
+        try {
+            E element;
+            while (count < batch.length && (element = take()) != null) {
+                batch[count++] = element;
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        if (count > 0) {
+            signalProducers();
+        }
+
+        return count;
+    }
+
+    /**
+     * Park the calling (consumer) thread until an element is available or the timeout expires.
+     *
+     * @param timeout
+     * @param unit
+     */
+    void awaitNotEmpty(long timeout, TimeUnit unit) {
+        waitingConsumer = Thread.currentThread();
+        try {
+            if (isEmpty()) {
+                LockSupport.parkNanos(this, unit.toNanos(timeout));
+            }
+        } finally {
+            waitingConsumer = null;
+        }
+    }
+
+    /**
+     * Reject the next elements (they are counted as dropped) and wake up the waiting producers.
+     * The elements from buffer can still be taken.
+     */
+    void close() {
+        closed = true;
+        lock.lock();
+        try {
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wake up the consumer parked in {@link #awaitNotEmpty(long, TimeUnit)} if any.
+     */
+    void wakeUpConsumer() {
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int size() {
+        long size = tail.get() - head.get();
+
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    /**
+     * Returns the number of elements added since the buffer creation.
+     *
+     * @return
+     */
+    long tailPosition() {
+        return tail.get();
+    }
+
+    /**
+     * Returns the number of elements removed since the buffer creation.
+     *
+     * @return
+     */
+    long headPosition() {
+        return head.get();
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of elements dropped by the overflow policy.
+     *
+     * @return
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private E take() {
+        long position = head.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E element = elements.get(index);
+                    elements.lazySet(index, null);
+                    sequences.lazySet(index, position + capacity);
+
+                    return element;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                // empty
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest element. Its acknowledgement (if any) is failed before the element is removed, under
+     * the take lock, so a consumer that reads the head position after its drain never completes it.
+     */
+    private void dropOldest(Acknowledgements acknowledgements) {
+        if (acknowledgements == null) {
+            if (poll() != null) {
+                dropped.incrementAndGet();
+            }
+            return;
+        }
+
+        takeLock.lock();
+        try {
+            long position = head.get();
+            if (sequences.get((int) (position & mask)) == position + 1) {
+                // published, and only the take lock holders remove elements from a buffer with acknowledgements
+                acknowledgements.fail(position + 1, new AuditException("The audit event was dropped"));
+                take();
+                dropped.incrementAndGet();
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        signalProducers();
+    }
+
+    private boolean putAndWait(E element, Acknowledgements acknowledgements, CompletableFuture<Void> future) {
+        lock.lock();
+        try {
+            waitingProducers.incrementAndGet();
+            try {
+                while (!offer(element, acknowledgements, future)) {
+                    if (closed) {
+                        dropped.incrementAndGet();
+                        return false;
+                    }
+                    // the timeout is only a safety net, the consumer signals after each poll
+                    notFull.await(10, TimeUnit.MILLISECONDS);
+                }
+
+                return true;
+            } finally {
+                waitingProducers.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dropped.incrementAndGet();
+
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalConsumer() {
+        if (waitingConsumer != null) {
+            wakeUpConsumer();
+        }
+    }
+
+    private void signalProducers() {
+        if (waitingProducers.get() > 0) {
+            lock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * File based {@link Auditor} that rolls to a new file (segment) when the current one reaches
+ * {@code maxSegmentSize} bytes and/or when it's older than {@code maxSegmentAge} milliseconds
+ * (both checked when an event is written).
+ * The segments are named like {@code audit.log.000001}, {@code audit.log.000002}, ...
+ * (the index continues after the last existing segment).
+ *
+ * The next segment is created and opened ahead of time by a background thread, so a roll only swaps
+ * the writers on the {@link #audit(AuditEvent)} path. Closing the previous segment, the compression
+ * and the retention (only the last {@code maxSegments} segments are kept) run on background threads.
+ *
+ * If a {@link BlockCompressor} is supplied, each closed segment is compressed in background.
+ * The not compressed segments found on startup (for example after a crash) are compressed too.
+ * A compression failure is thrown (as {@link AuditException}) by the next {@link #audit(AuditEvent)}.
+ * The retention skips the segments that are being compressed (they are deleted by a later retention)
+ * and deletes the temporary files left by a compression that didn't finish.
+ *
+ * The class is thread safe.
+ *
+ * @author Decebal Suiu
+ */
+public class RollingFileAuditor implements Auditor {
+
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final File file;
+    private final AuditEventFormatter formatter;
+    private final long maxSegmentSize;
+    private final long maxSegmentAge;
+    private final int maxSegments;
+    private final BlockCompressor compressor;
+    private final ExecutorService executor;
+    private final AtomicLong closedSegmentsSize = new AtomicLong();
+    // the indexes of the segments being compressed (the retention doesn't touch them)
+    private final Set<Long> compressing = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    private volatile long index; // written under the lock of this
+    private volatile Segment segment;
+    private Future<Segment> nextSegment; // guarded by this
+    private volatile AuditException rollError;
+
+    public RollingFileAuditor(File file) throws IOException {
+        this(file, SimpleAuditEventFormatter.get(), DEFAULT_MAX_SEGMENT_SIZE, new BlockCompressor());
+    }
+
+    /**
+     * @param file
+     * @param formatter
+     * @param maxSegmentSize the size in bytes that triggers the roll
+     * @param compressor the compressor of closed segments (it's closed by this auditor), or {@code null}
+     * @throws IOException
+     */
+    public RollingFileAuditor(File file, AuditEventFormatter formatter, long maxSegmentSize, BlockCompressor compressor) throws IOException {
+        this(file, formatter, maxSegmentSize, 0, 0, compressor);
+    }
+
+    /**
+     * @param file
+     * @param formatter
+     * @param maxSegmentSize the size in bytes that triggers the roll ({@link Long#MAX_VALUE} for no size limit)
+     * @param maxSegmentAge the age in milliseconds that triggers the roll, or {@code 0} for no age limit
+     * @param maxSegments the number of segments (compressed or not, including the current one) to keep,
+     *                    or {@code 0} to keep all
+     * @param compressor the compressor of closed segments (it's closed by this auditor), or {@code null}
+     * @throws IOException
+     */
+    public RollingFileAuditor(File file, AuditEventFormatter formatter, long maxSegmentSize, long maxSegmentAge,
+                              int maxSegments, BlockCompressor compressor) throws IOException {
+        if (maxSegmentSize <= 0) {
+            throw new IllegalArgumentException("The segment size must be positive");
+        }
+        if (maxSegmentAge < 0 || maxSegments < 0) {
+            throw new IllegalArgumentException("The segment age and the number of segments cannot be negative");
+        }
+
+        this.file = file;
+        this.formatter = formatter;
+        this.maxSegmentSize = maxSegmentSize;
+        this.maxSegmentAge = maxSegmentAge;
+        this.maxSegments = maxSegments;
+        this.compressor = compressor;
+
+        executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("rolling-file-auditor"));
+        for (Long index : SegmentFiles.indexes(file)) {
+            File segment = SegmentFiles.segment(file, index);
+            if (segment.length() == 0) {
+                // a pre-created segment, never used
+                segment.delete();
+            } else if (compressor != null) {
+                compress(index, segment);
+            }
+        }
+
+        index = SegmentFiles.lastIndex(file);
+        segment = new Segment(SegmentFiles.segment(file, ++index), index);
+        segment.start();
+
+        prepareNextSegment();
+        deleteOldSegments();
+    }
+
+    @Override
+    public synchronized void audit(AuditEvent event) {
+        AuditException error = rollError;
+        if (error != null) {
+            rollError = null;
+            throw error;
+        }
+
+        Segment segment = this.segment;
+        if (segment.out.getCount() >= maxSegmentSize
+            || (maxSegmentAge > 0 && System.currentTimeMillis() - segment.startTime >= maxSegmentAge)) {
+            segment = roll();
+        }
+
+        PrintWriter writer = segment.writer;
+        if (formatter instanceof AppendableAuditEventFormatter) {
+            try {
+                ((AppendableAuditEventFormatter) formatter).formatTo(event, writer);
+            } catch (IOException e) {
+                // cannot happen, PrintWriter never throws IOException (see PrintWriter#checkError)
+                throw new IllegalStateException(e);
+            }
+            writer.println();
+        } else {
+            writer.println(formatter.formatEvent(event));
+        }
+    }
+
+    /**
+     * Returns the file where the events are written now.
+     *
+     * @return
+     */
+    public File getSegment() {
+        return segment.file;
+    }
+
+    /**
+     * Returns the number of bytes written in all segments by this auditor (the buffered bytes are not counted).
+     *
+     * @return
+     */
+    public long getBytesWritten() {
+        return closedSegmentsSize.get() + segment.out.getCount();
+    }
+
+    /**
+     * Close the current segment (compress it if a compressor is used) and wait for the background work
+     * (including the pending compressions).
+     * This method must be call on shutdown application.
+     */
+    public synchronized void close() {
+        final Segment last = segment;
+        final Future<Segment> next = nextSegment;
+        executor.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                closeSegment(last);
+                try {
+                    next.get().delete();
+                } catch (InterruptedException | ExecutionException e) {
+                    // nothing to delete
+                }
+            }
+
+        });
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (compressor != null) {
+            compressor.close();
+        }
+    }
+
+    /**
+     * Swap the current segment with the prepared one. The old segment is closed in background.
+     */
+    private Segment roll() {
+        Segment next;
+        try {
+            // normally it's ready long before the roll
+            next = nextSegment.get();
+        } catch (InterruptedException | ExecutionException e) {
+            next = null;
+        }
+        if (next == null) {
+            try {
+                next = new Segment(SegmentFiles.segment(file, index + 1), index + 1);
+            } catch (IOException e) {
+                throw new AuditException("Cannot create the audit file", e);
+            }
+        }
+
+        final Segment closed = segment;
+        next.start();
+        segment = next;
+        index++;
+
+        executor.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                closeSegment(closed);
+                deleteOldSegments();
+            }
+
+        });
+        prepareNextSegment();
+
+        return next;
+    }
+
+    private void prepareNextSegment() {
+        final long nextIndex = index + 1;
+        final File next = SegmentFiles.segment(file, nextIndex);
+        nextSegment = executor.submit(new Callable<Segment>() {
+
+            @Override
+            public Segment call() throws IOException {
+                return new Segment(next, nextIndex);
+            }
+
+        });
+    }
+
+    private void closeSegment(Segment segment) {
+        segment.writer.close();
+        closedSegmentsSize.addAndGet(segment.out.getCount());
+        if (segment.writer.checkError()) {
+            rollError = new AuditException("Cannot write the audit file '" + segment.file + "'");
+        } else if (segment.file.length() == 0) {
+            segment.file.delete();
+        } else if (compressor != null) {
+            compress(segment.index, segment.file);
+        }
+    }
+
+    /**
+     * Compress the segment in background. A failure is reported by the next {@link #audit(AuditEvent)}.
+     */
+    private void compress(final long index, final File segment) {
+        compressing.add(index);
+        compressor.compress(segment).whenComplete(new BiConsumer<File, Throwable>() {
+
+            @Override
+            public void accept(File compressed, Throwable e) {
+                compressing.remove(index);
+                if (e != null) {
+                    rollError = new AuditException("Cannot compress the audit file '" + segment + "'", e);
+                } else if (maxSegments > 0) {
+                    // the retention may have skipped this segment
+                    try {
+                        executor.execute(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                deleteOldSegments();
+                            }
+
+                        });
+                    } catch (RejectedExecutionException x) {
+                        // the auditor is closed
+                    }
+                }
+            }
+
+        });
+    }
+
+    /**
+     * Delete the oldest segments (compressed or not) until only {@code maxSegments} remain,
+     * and the temporary files of the compressions that are not in progress.
+     * It runs on the background thread.
+     */
+    private void deleteOldSegments() {
+        String temporarySuffix = BlockCompressor.SUFFIX + BlockCompressor.TEMPORARY_SUFFIX;
+        for (Long index : SegmentFiles.indexes(file, temporarySuffix)) {
+            if (!compressing.contains(index)) {
+                new File(SegmentFiles.segment(file, index).getPath() + temporarySuffix).delete();
+            }
+        }
+
+        if (maxSegments == 0) {
+            return;
+        }
+
+        long current = index;
+        TreeSet<Long> indexes = new TreeSet<>(SegmentFiles.indexes(file));
+        indexes.addAll(SegmentFiles.indexes(file, BlockCompressor.SUFFIX));
+        List<Long> old = new ArrayList<>(indexes.headSet(current));
+        // the current segment is one of the kept segments
+        for (int i = 0; i < old.size() - (maxSegments - 1); i++) {
+            if (compressing.contains(old.get(i))) {
+                // deleted by a later retention, after the compression
+                continue;
+            }
+            File segment = SegmentFiles.segment(file, old.get(i));
+            segment.delete();
+            new File(segment.getPath() + BlockCompressor.SUFFIX).delete();
+        }
+    }
+
+    private static class Segment {
+
+        private final File file;
+        private final long index;
+        private final CountingOutputStream out;
+        private final PrintWriter writer;
+        private long startTime;
+
+        private Segment(File file, long index) throws IOException {
+            this.file = file;
+            this.index = index;
+            out = new CountingOutputStream(new FileOutputStream(file, true));
+            writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)));
+        }
+
+        private void start() {
+            startTime = System.currentTimeMillis();
+        }
+
+        private void delete() {
+            writer.close();
+            file.delete();
+        }
+
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Naming scheme for the auditors that write a sequence of files (segments).
+ * The segment {@code n} of {@code audit.log} is {@code audit.log.00000n}.
+ *
+ * @author Decebal Suiu
+ */
+final class SegmentFiles {
+
+    private SegmentFiles() {
+    }
+
+    static File segment(File file, long index) {
+        return new File(file.getAbsoluteFile().getParentFile(), String.format("%s.%06d", file.getName(), index));
+    }
+
+    /**
+     * Returns the indexes of the existing segments, sorted ascending.
+     * Files with a suffix after index (for example {@code audit.log.000001.dz}) are ignored.
+     *
+     * @param file
+     * @return
+     */
+    static List<Long> indexes(File file) {
+        return indexes(file, "");
+    }
+
+    /**
+     * Returns the indexes of the existing segments with the given suffix after index, sorted ascending.
+     *
+     * @param file
+     * @param suffix for example {@link BlockCompressor#SUFFIX}
+     * @return
+     */
+    static List<Long> indexes(File file, String suffix) {
+        List<Long> indexes = new ArrayList<>();
+        File directory = file.getAbsoluteFile().getParentFile();
+        String[] names = directory.list();
+        if (names == null) {
+            return indexes;
+        }
+
+        Pattern pattern = Pattern.compile(Pattern.quote(file.getName()) + "\\.(\\d{6,})" + Pattern.quote(suffix));
+        for (String name : names) {
+            Matcher matcher = pattern.matcher(name);
+            if (matcher.matches()) {
+                indexes.add(Long.parseLong(matcher.group(1)));
+            }
+        }
+        Collections.sort(indexes);
+
+        return indexes;
+    }
+
+    /**
+     * Returns the index of the last segment (compressed or not) or {@code -1} if there are no segments.
+     *
+     * @param file
+     * @return
+     */
+    static long lastIndex(File file) {
+        return Math.max(last(indexes(file)), last(indexes(file, BlockCompressor.SUFFIX)));
+    }
+
+    private static long last(List<Long> indexes) {
+        return indexes.isEmpty() ? -1 : indexes.get(indexes.size() - 1);
+    }
+
+}
@@ -15,20 +15,35 @@
  */
 package ro.fortsoft.auditor;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * It's a very simple implementation of {@link AuditEventFormatter}.
  * If it's not specified a formatter, then in all cases this formatter is used (it's the default).
+ * The class is thread safe, the formatted date is cached per second.
+ * The {@code formatTo} methods don't create garbage in steady state (if the context values are strings).
  *
  * @author Decebal Suiu
  */
-public class SimpleAuditEventFormatter implements AuditEventFormatter {
+public class SimpleAuditEventFormatter implements AppendableAuditEventFormatter {
 
     private static SimpleAuditEventFormatter singleton = new SimpleAuditEventFormatter();
 
-    private DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy HH:mm:ss");
+    private static final ThreadLocal<ByteBufferAppendable> byteBufferAppendable = new ThreadLocal<ByteBufferAppendable>() {
+
+        @Override
+        protected ByteBufferAppendable initialValue() {
+            return new ByteBufferAppendable();
+        }
+
+    };
+
+    private volatile CachedDateFormat dateFormat = new CachedDateFormat(new SimpleDateFormat("MM/dd/yyyy HH:mm:ss"));
 
     public static SimpleAuditEventFormatter get() {
         return singleton;
@@ -40,7 +55,7 @@ public class SimpleAuditEventFormatter implements AuditEventFormatter {
      * @param dateFormat
      */
     public void setDateFormat(DateFormat dateFormat) {
-        this.dateFormat = dateFormat;
+        this.dateFormat = new CachedDateFormat(dateFormat);
     }
 
     /**
@@ -56,49 +71,97 @@ public class SimpleAuditEventFormatter implements AuditEventFormatter {
      */
     @Override
     public String formatEvent(AuditEvent event) {
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = new StringBuilder(128);
+        try {
+            formatTo(event, sb);
+        } catch (IOException e) {
+            // cannot happen with a StringBuilder
+            throw new IllegalStateException(e);
+        }
 
-        sb.append('[');
-        sb.append(dateFormat.format(event.getDate()));
-        sb.append("] ");
+        return sb.toString();
+    }
+
+    @Override
+    public void formatTo(AuditEvent event, Appendable out) throws IOException {
+        out.append('[');
+        out.append(dateFormat.format(event.getTimestamp()));
+        out.append("] ");
 
         String username = event.getUsername();
         if (username != null && !username.isEmpty()) {
-            sb.append(username);
-            sb.append(' ');
+            out.append(username);
+            out.append(' ');
         }
 
         String session = event.getSession();
         if (session != null && !session.isEmpty()) {
-            sb.append(session);
-            sb.append(' ');
+            out.append(session);
+            out.append(' ');
         }
 
         String ip = event.getIp();
         if (ip != null && !ip.isEmpty()) {
-            sb.append(ip);
-            sb.append(' ');
+            out.append(ip);
+            out.append(' ');
         }
 
-        sb.append("- ");
-        sb.append(event.getAction());
+        out.append("- ");
+        out.append(event.getAction());
 
-        sb.append(formatContext(event));
+        formatContext(event, out);
         String errorMessage = event.getErrorMessage();
         if (errorMessage != null && !errorMessage.isEmpty()) {
-            sb.append(" - ");
-            sb.append(errorMessage);
+            out.append(" - ");
+            out.append(errorMessage);
         }
+    }
 
-        return sb.toString();
+    @Override
+    public void formatTo(AuditEvent event, ByteBuffer buffer) {
+        try {
+            formatTo(event, byteBufferAppendable.get().reset(buffer));
+        } catch (IOException e) {
+            // cannot happen with a ByteBuffer (it throws only runtime exceptions)
+            throw new IllegalStateException(e);
+        }
     }
 
-    protected String formatContext(AuditEvent event) {
-        if (event.getContext().isEmpty()) {
-            return "";
+    /**
+     * Append the context in the same form as {@link java.util.AbstractMap#toString()}, preceded by a space.
+     * Nothing is appended if the context is empty.
+     *
+     * @param event
+     * @param out
+     * @throws IOException
+     */
+    protected void formatContext(AuditEvent event, Appendable out) throws IOException {
+        if (!event.hasContext()) {
+            return;
+        }
+
+        Map<String, Object> context = event.getContext();
+
+        out.append(" {");
+        Iterator<Map.Entry<String, Object>> it = context.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Object> entry = it.next();
+            out.append(entry.getKey());
+            out.append('=');
+            appendValue(entry.getValue(), out);
+            if (it.hasNext()) {
+                out.append(", ");
+            }
         }
+        out.append('}');
+    }
 
-        return " " + event.getContext().toString();
+    private static void appendValue(Object value, Appendable out) throws IOException {
+        if (value instanceof CharSequence) {
+            out.append((CharSequence) value);
+        } else {
+            out.append(String.valueOf(value));
+        }
     }
 
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+/**
+ * What a {@link PublishingAuditor} does with a subscriber whose buffer is full.
+ * In all cases the producer never waits.
+ *
+ * @author Decebal Suiu
+ */
+public enum SlowConsumerPolicy {
+
+    /**
+     * The new event is discarded for this subscriber (see {@link Subscription#getDroppedCount()}).
+     */
+    DROP,
+
+    /**
+     * The subscriber is disconnected; it can still poll the events from its buffer
+     * (see {@link Subscription#isDisconnected()}).
+     */
+    DISCONNECT
+
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * An append-only file with the formatted events (lines) that didn't fit in the buffer of an asynchronous auditor.
+ * While the journal is active, all new events must be appended to it, to keep the order.
+ * The writer thread copies the journal to the audit file with {@link #replay(Output)}, in chunks of complete lines;
+ * when it reaches the end, the journal is truncated and deactivated (under the journal lock).
+ * The read position advances after each written chunk, so a failed replay is resumed without repeating lines.
+ *
+ * A not empty journal found on startup (for example after a crash) is active, so it's replayed first.
+ *
+ * @author Decebal Suiu
+ */
+final class SpillJournal {
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private final File file;
+    private final AuditEventFormatter formatter;
+
+    private Writer writer; // guarded by this
+    private volatile boolean active;
+    private long readPosition; // used only by the writer thread
+    private long appended; // guarded by this
+    private volatile long replayed;
+
+    SpillJournal(File file, AuditEventFormatter formatter) throws IOException {
+        this.file = file;
+        this.formatter = formatter;
+
+        active = file.length() > 0;
+        writer = open();
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Append an event and activate the journal.
+     *
+     * @param event
+     * @return the number of events appended (since creation), see {@link #getReplayedCount()}
+     * @throws AuditException if the event cannot be written
+     */
+    synchronized long append(AuditEvent event) {
+        try {
+            write(event);
+        } catch (IOException e) {
+            throw new AuditException("Cannot write the spill journal '" + file + "'", e);
+        }
+        active = true;
+
+        return ++appended;
+    }
+
+    /**
+     * Append a batch of events (under one lock) and activate the journal.
+     *
+     * @param events
+     * @param offset
+     * @param length
+     * @throws AuditException if the events cannot be written
+     */
+    synchronized void appendAll(AuditEvent[] events, int offset, int length) {
+        try {
+            for (int i = offset; i < offset + length; i++) {
+                write(events[i]);
+            }
+        } catch (IOException e) {
+            throw new AuditException("Cannot write the spill journal '" + file + "'", e);
+        }
+        active = true;
+        appended += length;
+    }
+
+    /**
+     * Returns the number of appended events (since creation) that were replayed.
+     *
+     * @return
+     */
+    long getReplayedCount() {
+        return replayed;
+    }
+
+    private void write(AuditEvent event) throws IOException {
+        if (formatter instanceof AppendableAuditEventFormatter) {
+            ((AppendableAuditEventFormatter) formatter).formatTo(event, writer);
+        } else {
+            writer.write(formatter.formatEvent(event));
+        }
+        writer.write(LINE_SEPARATOR);
+    }
+
+    /**
+     * Copy the journal to {@code out} until the end, then truncate and deactivate it.
+     * The events appended while copying are copied too.
+     * The producers are blocked only for the final check (and truncation).
+     *
+     * @param out
+     * @throws IOException if the journal cannot be read or a chunk cannot be written
+     */
+    void replay(Output out) throws IOException {
+        byte[] bytes = new byte[8192];
+        while (true) {
+            long end;
+            synchronized (this) {
+                writer.flush();
+                end = file.length();
+                if (readPosition >= end) {
+                    writer.close();
+                    writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file)));
+                    readPosition = 0;
+                    active = false;
+                    replayed = appended;
+                    return;
+                }
+            }
+
+            try (FileInputStream in = new FileInputStream(file)) {
+                in.getChannel().position(readPosition);
+                InputStream input = new LimitedInputStream(in, end - readPosition);
+                int length = 0;
+                int count;
+                while ((count = input.read(bytes, length, bytes.length - length)) > 0) {
+                    length += count;
+                    int chunkLength = lastLineEnd(bytes, length);
+                    if (chunkLength == 0) {
+                        if (length == bytes.length) {
+                            // a line longer than buffer
+                            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                        }
+                        continue;
+                    }
+
+                    writeChunk(out, bytes, chunkLength);
+                    System.arraycopy(bytes, chunkLength, bytes, 0, length - chunkLength);
+                    length -= chunkLength;
+                }
+                if (length > 0) {
+                    // a line without separator (the journal was torn by a crash)
+                    writeChunk(out, bytes, length);
+                }
+            }
+        }
+    }
+
+    private void writeChunk(Output out, byte[] bytes, int length) throws IOException {
+        out.write(bytes, 0, length);
+        readPosition += length;
+    }
+
+    private static int lastLineEnd(byte[] bytes, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+
+        return 0;
+    }
+
+    synchronized void close() throws IOException {
+        writer.close();
+        if (!active) {
+            file.delete();
+        }
+    }
+
+    private Writer open() throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true)));
+    }
+
+    /**
+     * The destination of replay.
+     */
+    interface Output {
+
+        /**
+         * Write a chunk of complete lines (encoded with the default charset).
+         * If the write fails, nothing from the chunk must remain in destination.
+         *
+         * @param bytes
+         * @param offset
+         * @param length
+         * @throws IOException
+         */
+        void write(byte[] bytes, int offset, int length) throws IOException;
+
+    }
+
+}
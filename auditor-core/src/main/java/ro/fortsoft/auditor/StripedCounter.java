@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter split in stripes, so threads that update it concurrently rarely touch the same cache line.
+ * The stripe is chosen by thread id; {@link #sum()} adds all stripes.
+ *
+ * @author Decebal Suiu
+ */
+final class StripedCounter {
+
+    // a long is 8 bytes, so 8 longs keep two stripes on different 64 bytes cache lines
+    private static final int PADDING = 8;
+
+    static final int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    void increment() {
+        add(1);
+    }
+
+    void add(long value) {
+        cells.getAndAdd(stripe() * PADDING, value);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Returns the stripe of the current thread.
+     *
+     * @return
+     */
+    static int stripe() {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+
+    private static int stripes() {
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), 64);
+
+        return processors <= 2 ? 2 : Integer.highestOneBit(processors - 1) << 1;
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * The events received by a subscriber of {@link PublishingAuditor}, in a bounded lock-free buffer.
+ * The subscriber polls the events on its own thread. {@link #poll()} and {@link #drainTo(AuditEvent[])}
+ * can be called from several threads, but only one thread at a time can wait in {@link #poll(long, TimeUnit)}.
+ * The events are shared with the other subscribers, so they must be treated as read only.
+ *
+ * A filter that throws an exception disconnects the subscription (see {@link #getFailure()}),
+ * the producer and the other subscribers are not affected.
+ *
+ * @author Decebal Suiu
+ */
+public final class Subscription {
+
+    private final PublishingAuditor publisher;
+    private final Predicate<AuditEvent> filter;
+    private final RingBuffer<AuditEvent> buffer;
+    private final SlowConsumerPolicy policy;
+
+    private volatile boolean disconnected;
+    private volatile RuntimeException failure;
+
+    Subscription(PublishingAuditor publisher, Predicate<AuditEvent> filter, int bufferSize, SlowConsumerPolicy policy) {
+        this.publisher = publisher;
+        this.filter = filter;
+        buffer = new RingBuffer<>(bufferSize);
+        this.policy = policy;
+    }
+
+    /**
+     * Retrieve and remove the oldest event.
+     *
+     * @return the event or {@code null} if the buffer is empty
+     */
+    public AuditEvent poll() {
+        return buffer.poll();
+    }
+
+    /**
+     * Retrieve and remove the oldest event, waiting if necessary.
+     * Only one thread at a time can wait (the buffer has a single parking slot for the consumer).
+     *
+     * @param timeout
+     * @param unit
+     * @return the event or {@code null} if no event arrived before the timeout (or the subscription is closed)
+     * @throws InterruptedException
+     */
+    public AuditEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            AuditEvent event = buffer.poll();
+            if (event != null) {
+                return event;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || disconnected) {
+                return null;
+            }
+            buffer.awaitNotEmpty(remaining, TimeUnit.NANOSECONDS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Move up to {@code events.length} events in the supplied array.
+     *
+     * @param events
+     * @return the number of events moved
+     */
+    public int drainTo(AuditEvent[] events) {
+        return buffer.drainTo(events);
+    }
+
+    /**
+     * Returns the number of events waiting in the buffer.
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return buffer.size();
+    }
+
+    /**
+     * Returns the number of events dropped by {@link SlowConsumerPolicy#DROP}.
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return buffer.getDroppedCount();
+    }
+
+    /**
+     * Returns {@code true} if this subscription doesn't receive new events
+     * (it was cancelled or disconnected by {@link SlowConsumerPolicy#DISCONNECT}).
+     *
+     * @return
+     */
+    public boolean isDisconnected() {
+        return disconnected;
+    }
+
+    /**
+     * Returns the exception thrown by the filter, that disconnected this subscription, or {@code null}.
+     *
+     * @return
+     */
+    public RuntimeException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Stop receiving events. The events from buffer can still be polled.
+     */
+    public void cancel() {
+        disconnect();
+    }
+
+    /**
+     * Called by publisher (on the producer thread) for each event.
+     */
+    void publish(AuditEvent event) {
+        if (filter != null) {
+            boolean accepted;
+            try {
+                accepted = filter.test(event);
+            } catch (RuntimeException e) {
+                // a faulty subscriber must not break the producer
+                failure = e;
+                disconnect();
+                return;
+            }
+            if (!accepted) {
+                return;
+            }
+        }
+
+        if (policy == SlowConsumerPolicy.DISCONNECT) {
+            if (!buffer.offer(event)) {
+                disconnect();
+            }
+        } else {
+            buffer.put(event, OverflowPolicy.DROP_NEWEST);
+        }
+    }
+
+    private void disconnect() {
+        if (!disconnected) {
+            disconnected = true;
+            publisher.unsubscribe(this);
+            buffer.wakeUpConsumer();
+        }
+    }
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * File based {@link Auditor} without a global lock on the {@link #audit(AuditEvent)} path.
+ * Each thread formats its events (UTF-8) into its own reusable buffer.
+ * A full buffer, or a buffer older than {@code maxAge} milliseconds, is handed to a single writer thread,
+ * that writes many buffers at once with a gathering {@link FileChannel#write(ByteBuffer[])}.
+ *
+ * Each line starts with a global sequence number, so readers can restore the total order of events:
+ * {@code
+ * sequence [date] username? session? ip? - action context? - errorMessage?
+ * }
+ * The lines of different threads can appear in file out of sequence order.
+ *
+ * The class is thread safe. Call {@link #close()} on shutdown application,
+ * to write the events still buffered by threads.
+ *
+ * @author Decebal Suiu
+ */
+public class ThreadLocalFileAuditor implements Auditor {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_MAX_AGE = 100;
+
+    private static final int BATCH_SIZE = 64;
+
+    private final FileOutputStream out;
+    private final FileChannel channel;
+    private final AuditEventFormatter formatter;
+    private final int bufferSize;
+    private final long maxAgeNanos;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final Queue<ByteBuffer> fullBuffers = new ConcurrentLinkedQueue<>();
+    private final Queue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final Queue<ThreadBuffer> threadBuffers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<ThreadBuffer> threadBuffer;
+    private final Thread writerThread;
+
+    private volatile boolean closed;
+    private volatile IOException error;
+
+    public ThreadLocalFileAuditor(File file) throws IOException {
+        this(file, SimpleAuditEventFormatter.get(), DEFAULT_BUFFER_SIZE, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * @param file
+     * @param formatter
+     * @param bufferSize the size in bytes of a thread buffer
+     * @param maxAge the maximum time in milliseconds an event waits in a thread buffer
+     * @throws IOException
+     */
+    public ThreadLocalFileAuditor(File file, AuditEventFormatter formatter, int bufferSize, long maxAge) throws IOException {
+        out = new FileOutputStream(file, true);
+        channel = out.getChannel();
+        this.formatter = formatter;
+        this.bufferSize = bufferSize;
+        maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAge);
+
+        threadBuffer = new ThreadLocal<ThreadBuffer>() {
+
+            @Override
+            protected ThreadBuffer initialValue() {
+                ThreadBuffer threadBuffer = new ThreadBuffer(takeFreeBuffer());
+                threadBuffers.add(threadBuffer);
+
+                return threadBuffer;
+            }
+
+        };
+
+        writerThread = new DaemonThreadFactory("thread-local-file-auditor").newThread(new Runnable() {
+
+            @Override
+            public void run() {
+                writeLoop();
+            }
+
+        });
+        writerThread.start();
+    }
+
+    @Override
+    public void audit(AuditEvent event) {
+        if (closed) {
+            return;
+        }
+        if (error != null) {
+            throw new AuditException("Cannot write the audit file", error);
+        }
+
+        ThreadBuffer threadBuffer = this.threadBuffer.get();
+        synchronized (threadBuffer) {
+            // uncontended, only the writer thread takes this lock (for aged buffers)
+            threadBuffer.append(sequence.getAndIncrement(), event);
+        }
+    }
+
+    /**
+     * Returns the number of bytes written in file by this auditor (the buffered bytes are not counted).
+     *
+     * @return
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Write the buffered events of all threads, stop the writer thread and close the file.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new AuditException("Cannot close the audit file", e);
+        }
+    }
+
+    private void writeLoop() {
+        ByteBuffer[] batch = new ByteBuffer[BATCH_SIZE];
+        while (true) {
+            int count = 0;
+            ByteBuffer buffer;
+            while (count < batch.length && (buffer = fullBuffers.poll()) != null) {
+                batch[count++] = buffer;
+            }
+
+            if (count > 0) {
+                write(batch, count);
+            } else if (closed) {
+                handOffAll(true);
+                if (fullBuffers.isEmpty()) {
+                    break;
+                }
+            } else {
+                LockSupport.parkNanos(this, maxAgeNanos);
+                handOffAll(false);
+            }
+        }
+    }
+
+    private void write(ByteBuffer[] batch, int count) {
+        try {
+            int last = 0;
+            while (last < count) {
+                bytesWritten.addAndGet(channel.write(batch, last, count - last));
+                while (last < count && !batch[last].hasRemaining()) {
+                    last++;
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (batch[i].capacity() == bufferSize) {
+                batch[i].clear();
+                freeBuffers.offer(batch[i]);
+            }
+            batch[i] = null;
+        }
+    }
+
+    /**
+     * Hand off the aged buffers of threads (or all non empty buffers on close).
+     * The buffers of dead threads are handed off and forgotten.
+     *
+     * @param all
+     */
+    private void handOffAll(boolean all) {
+        long now = System.nanoTime();
+        Iterator<ThreadBuffer> it = threadBuffers.iterator();
+        while (it.hasNext()) {
+            ThreadBuffer threadBuffer = it.next();
+            synchronized (threadBuffer) {
+                Thread owner = threadBuffer.owner.get();
+                boolean dead = (owner == null) || !owner.isAlive();
+                if (threadBuffer.buffer.position() > 0 && (all || dead || now - threadBuffer.firstEventTime >= maxAgeNanos)) {
+                    threadBuffer.handOff();
+                }
+                if (dead) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private ByteBuffer takeFreeBuffer() {
+        ByteBuffer buffer = freeBuffers.poll();
+
+        return (buffer != null) ? buffer : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    private class ThreadBuffer {
+
+        private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+        private ByteBuffer buffer;
+        private long firstEventTime;
+
+        private ThreadBuffer(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private void append(long sequence, AuditEvent event) {
+            int start = buffer.position();
+            try {
+                encode(sequence, event, buffer);
+            } catch (BufferOverflowException e) {
+                buffer.position(start);
+                if (start > 0) {
+                    handOff();
+                }
+                appendLarge(sequence, event);
+            } catch (RuntimeException e) {
+                // the formatter failed, remove the sequence prefix and the partial line
+                buffer.position(start);
+                throw e;
+            }
+
+            long now = System.nanoTime();
+            if (start == 0) {
+                firstEventTime = now;
+            } else if (now - firstEventTime >= maxAgeNanos) {
+                handOff();
+            }
+        }
+
+        /**
+         * The event doesn't fit in an empty buffer, so it's encoded in a bigger (not pooled) buffer.
+         */
+        private void appendLarge(long sequence, AuditEvent event) {
+            int size = bufferSize;
+            while (true) {
+                try {
+                    size *= 2;
+                    ByteBuffer large = ByteBuffer.allocate(size);
+                    encode(sequence, event, large);
+                    large.flip();
+                    fullBuffers.offer(large);
+                    LockSupport.unpark(writerThread);
+                    return;
+                } catch (BufferOverflowException e) {
+                    // try a bigger buffer
+                }
+            }
+        }
+
+        private void handOff() {
+            buffer.flip();
+            fullBuffers.offer(buffer);
+            buffer = takeFreeBuffer();
+            LockSupport.unpark(writerThread);
+        }
+
+        private void encode(long sequence, AuditEvent event, ByteBuffer buffer) {
+            putDecimal(sequence, buffer);
+            buffer.put((byte) ' ');
+            if (formatter instanceof AppendableAuditEventFormatter) {
+                ((AppendableAuditEventFormatter) formatter).formatTo(event, buffer);
+            } else {
+                buffer.put(formatter.formatEvent(event).getBytes(StandardCharsets.UTF_8));
+            }
+            buffer.put((byte) '\n');
+        }
+
+    }
+
+    private static void putDecimal(long value, ByteBuffer buffer) {
+        if (value < 10) {
+            buffer.put((byte) ('0' + value));
+            return;
+        }
+
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            buffer.put((byte) ('0' + (value / divisor) % 10));
+            divisor /= 10;
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Decebal Suiu
+ */
+public class AggregatingAuditorTest {
+
+    private static final long MINUTE = AggregatingAuditor.DEFAULT_BUCKET_SIZE;
+    private static final int ANY = AggregatingAuditor.ANY_LEVEL;
+
+    @Test
+    public void countAndTop() {
+        AggregatingAuditor auditor = new AggregatingAuditor();
+        for (int minute = 0; minute < 5; minute++) {
+            for (int i = 0; i <= minute; i++) {
+                auditor.audit(login("alice", AuditEvent.ERROR, minute));
+            }
+            auditor.audit(login("bob", AuditEvent.ERROR, minute));
+            auditor.audit(login("bob", AuditEvent.INFO, minute));
+        }
+
+        // alice: 1 + 2 + ... + 5 failed logins, bob: 5
+        assertEquals(15, auditor.count("Login", "alice", null, AuditEvent.ERROR, 0, 5 * MINUTE));
+        assertEquals(10, auditor.count("Login", "bob", null, ANY, 0, 5 * MINUTE));
+        assertEquals(9, auditor.count("Login", "alice", null, ANY, 3 * MINUTE, 5 * MINUTE));
+        assertEquals(0, auditor.count("Logout", null, null, ANY, 0, 5 * MINUTE));
+
+        List<AggregatingAuditor.Count> top = auditor.top(2, "Login", null, null, AuditEvent.ERROR, 0, 5 * MINUTE);
+        assertEquals(2, top.size());
+        assertEquals("alice", top.get(0).getUsername());
+        assertEquals(15, top.get(0).getCount());
+        assertEquals("bob", top.get(1).getUsername());
+        assertEquals(5, top.get(1).getCount());
+    }
+
+    @Test
+    public void overflowKeys() {
+        AggregatingAuditor auditor = new AggregatingAuditor(null, MINUTE, 10, 3);
+        for (int i = 0; i < 5; i++) {
+            auditor.audit(login("user" + i, AuditEvent.INFO, 0));
+        }
+
+        // the first two kinds are counted separately, the others as "other"
+        assertEquals(2, auditor.getKeyCount());
+        assertEquals(2, auditor.count("Login", null, null, ANY, 0, MINUTE));
+        assertEquals(3, auditor.count(AggregatingAuditor.OTHER, null, null, ANY, 0, MINUTE));
+    }
+
+    @Test
+    public void evictOldBuckets() {
+        AggregatingAuditor auditor = new AggregatingAuditor(null, MINUTE, 3, 3);
+        auditor.audit(login("alice", AuditEvent.INFO, 0));
+        auditor.audit(login("bob", AuditEvent.INFO, 1));
+        assertEquals(2, auditor.count(null, null, null, ANY, 0, 3 * MINUTE));
+
+        // minute 3 reuses the bucket of minute 0
+        auditor.audit(login("bob", AuditEvent.INFO, 3));
+        assertEquals(0, auditor.count(null, "alice", null, ANY, 0, 4 * MINUTE));
+        assertEquals(2, auditor.count(null, "bob", null, ANY, 0, 4 * MINUTE));
+
+        // too old, ignored
+        auditor.audit(login("alice", AuditEvent.INFO, 0));
+        assertEquals(0, auditor.count(null, "alice", null, ANY, 0, 4 * MINUTE));
+
+        // the key of alice (without counts) is reclaimed when the table is full
+        auditor.audit(login("carol", AuditEvent.INFO, 4));
+        auditor.audit(login("dave", AuditEvent.INFO, 5));
+        auditor.audit(login("dave", AuditEvent.INFO, 6));
+        assertEquals(1, auditor.count(null, "dave", null, ANY, 0, 7 * MINUTE));
+    }
+
+    private static AuditEvent login(String username, int level, int minute) {
+        return new AuditEvent("Login", level).setUsername(username).setTimestamp(minute * MINUTE + 1);
+    }
+
+}
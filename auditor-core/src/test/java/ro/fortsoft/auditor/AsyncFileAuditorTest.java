@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Decebal Suiu
+ */
+public class AsyncFileAuditorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void closeWritesAllEvents() throws Exception {
+        File file = folder.newFile("audit.log");
+        final AsyncFileAuditor auditor = new AsyncFileAuditor(file, SimpleAuditEventFormatter.get(), 16, OverflowPolicy.BLOCK);
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final String username = "user" + i;
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        auditor.audit(new AuditEvent("Login").setUsername(username));
+                    }
+                }
+
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        auditor.close();
+
+        assertEquals(4000, readLines(file).size());
+        assertEquals(0, auditor.getDroppedCount());
+    }
+
+    @Test
+    public void dropNewestWhenFull() throws Exception {
+        File file = folder.newFile("audit.log");
+        AsyncFileAuditor auditor = new AsyncFileAuditor(file, SimpleAuditEventFormatter.get(), 1, OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 1000; i++) {
+            auditor.audit(new AuditEvent("Login"));
+        }
+        auditor.close();
+
+        List<String> lines = readLines(file);
+        assertTrue(lines.size() > 0);
+        assertEquals(1000, lines.size() + auditor.getDroppedCount());
+    }
+
+    @Test
+    public void dropOldestWhenFull() throws Exception {
+        File file = folder.newFile("audit.log");
+        AsyncFileAuditor auditor = new AsyncFileAuditor(file, SimpleAuditEventFormatter.get(), 2, OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 1000; i++) {
+            auditor.audit(new AuditEvent("Login" + i));
+        }
+        auditor.close();
+
+        // the newest event is never dropped
+        List<String> lines = readLines(file);
+        assertTrue(lines.get(lines.size() - 1).endsWith("- Login999"));
+        assertEquals(1000, lines.size() + auditor.getDroppedCount());
+    }
+
+    @Test
+    public void formatterFailureIsCounted() throws Exception {
+        File file = folder.newFile("audit.log");
+        AuditEventFormatter formatter = new AuditEventFormatter() {
+
+            @Override
+            public String formatEvent(AuditEvent event) {
+                if ("Fail".equals(event.getAction())) {
+                    throw new IllegalStateException("Cannot format");
+                }
+
+                return SimpleAuditEventFormatter.get().formatEvent(event);
+            }
+
+        };
+        AsyncFileAuditor auditor = new AsyncFileAuditor(file, formatter, 16, OverflowPolicy.BLOCK);
+        for (int i = 0; i < 100; i++) {
+            auditor.audit(new AuditEvent((i % 10 == 0) ? "Fail" : "Login"));
+        }
+        auditor.close();
+
+        // the writer survives, the other events are written
+        assertEquals(90, readLines(file).size());
+        assertEquals(10, auditor.getFailureCount());
+        assertEquals("Cannot format", auditor.getLastFailure().getMessage());
+    }
+
+    @Test
+    public void auditAll() throws Exception {
+        for (OverflowPolicy policy : new OverflowPolicy[] { OverflowPolicy.BLOCK, OverflowPolicy.SPILL }) {
+            File file = folder.newFile("audit-" + policy + ".log");
+            AsyncFileAuditor auditor = new AsyncFileAuditor(file, SimpleAuditEventFormatter.get(), 16, policy);
+            for (int i = 0; i < 10; i++) {
+                List<AuditEvent> events = new ArrayList<>();
+                for (int j = 0; j < 100; j++) {
+                    events.add(new AuditEvent("Login" + (i * 100 + j)));
+                }
+                auditor.auditAll(events);
+            }
+            auditor.close();
+
+            List<String> lines = readLines(file);
+            assertEquals(1000, lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                assertTrue(lines.get(i).endsWith("- Login" + i));
+            }
+        }
+    }
+
+    @Test
+    public void auditAfterCloseIsIgnored() throws Exception {
+        File file = folder.newFile("audit.log");
+        AsyncFileAuditor auditor = new AsyncFileAuditor(file);
+        auditor.close();
+        auditor.audit(new AuditEvent("Login"));
+
+        assertEquals(0, readLines(file).size());
+    }
+
+    @Test
+    public void spillKeepsOrder() throws Exception {
+        File file = folder.newFile("audit.log");
+        final AsyncFileAuditor auditor = new AsyncFileAuditor(file, SimpleAuditEventFormatter.get(), 2, OverflowPolicy.SPILL);
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final String username = "user" + i;
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 2000; j++) {
+                        auditor.audit(new AuditEvent("Login" + j).setUsername(username));
+                    }
+                }
+
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        auditor.close();
+
+        List<String> lines = readLines(file);
+        assertEquals(8000, lines.size());
+        assertEquals(0, auditor.getDroppedCount());
+        assertFalse(new File(file.getPath() + ".spill").exists());
+
+        // the events of a thread are in order
+        int[] next = new int[threads.length];
+        for (String line : lines) {
+            int user = Integer.parseInt(line.substring(line.indexOf("user") + 4, line.indexOf(" - ")));
+            assertTrue(line.endsWith("- Login" + next[user]++));
+        }
+    }
+
+    private static List<String> readLines(File file) throws Exception {
+        return Files.readAllLines(file.toPath(), Charset.defaultCharset());
+    }
+
+}
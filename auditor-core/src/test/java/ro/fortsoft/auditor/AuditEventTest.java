@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Decebal Suiu
+ */
+public class AuditEventTest {
+
+    @Test
+    public void timestampAndContext() {
+        AuditEvent event = new AuditEvent("Login").setDate(new Date(1514073606000L));
+        assertEquals(1514073606000L, event.getTimestamp());
+        assertEquals(new Date(1514073606000L), event.getDate());
+
+        assertFalse(event.hasContext());
+        event.put("amount", 10);
+        assertTrue(event.hasContext());
+        assertEquals(10, event.getContext().get("amount"));
+    }
+
+    @Test
+    public void reusable() {
+        AuditEvent event = AuditEvent.reusable("Login").setUsername("decebal").put("amount", 10);
+        AuditEvent reused = AuditEvent.reusable("Logout");
+
+        assertSame(event, reused);
+        assertEquals("Logout", reused.getAction());
+        assertNull(reused.getUsername());
+        assertFalse(reused.hasContext());
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Decebal Suiu
+ */
+public class AuditLogReaderTest {
+
+    private static final long START = 1514073606000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void queryTimeRange() throws Exception {
+        File file = folder.newFile("audit.log");
+        List<AuditEvent> events = new ArrayList<>();
+        BinaryFileAuditor auditor = new BinaryFileAuditor(file, 100);
+        for (int i = 0; i < 10000; i++) {
+            // a little disorder, like events created on different threads
+            long timestamp = START + i * 1000 + ((i % 7 == 0) ? -3000 : 0);
+            AuditEvent event = new AuditEvent((i % 5 == 0) ? "Logout" : "Login")
+                .setUsername("user" + (i % 10))
+                .setDate(new Date(timestamp));
+            events.add(event);
+            auditor.audit(event);
+        }
+        auditor.close();
+
+        assertTrue(AuditLogIndex.load(file).size > 90);
+
+        AuditQuery query = new AuditQuery()
+            .setFrom(new Date(START + 600 * 1000))
+            .setTo(new Date(START + 900 * 1000))
+            .setUsername("user3")
+            .setAction("Login");
+        assertEquals(filter(events, query), read(new AuditLogReader(file).query(query)));
+        assertEquals(events.size(), read(new AuditLogReader(file).read()).size());
+    }
+
+    @Test
+    public void readNotIndexedTail() throws Exception {
+        File file = folder.newFile("audit.log");
+        BinaryFileAuditor auditor = new BinaryFileAuditor(file, 100);
+        for (int i = 0; i < 250; i++) {
+            auditor.audit(new AuditEvent("Login").setDate(new Date(START + i)));
+        }
+        auditor.flush();
+
+        AuditQuery query = new AuditQuery().setFrom(new Date(START + 150));
+        assertEquals(100, read(new AuditLogReader(file).query(query)).size());
+        auditor.close();
+    }
+
+    @Test
+    public void readNotIndexedBlockAfterCrash() throws Exception {
+        File file = folder.newFile("audit.log");
+        BinaryFileAuditor auditor = new BinaryFileAuditor(file, 100);
+        for (int i = 0; i < 150; i++) {
+            auditor.audit(new AuditEvent("Login").setDate(new Date(START + i)));
+        }
+        // simulate a crash (no close, so the last 50 events are not indexed)
+        auditor.flush();
+
+        auditor = new BinaryFileAuditor(file, 100);
+        for (int i = 150; i < 300; i++) {
+            auditor.audit(new AuditEvent("Login").setDate(new Date(START + i)));
+        }
+        auditor.close();
+
+        assertEquals(300, read(new AuditLogReader(file).read()).size());
+        AuditQuery query = new AuditQuery().setFrom(new Date(START + 120)).setTo(new Date(START + 180));
+        assertEquals(60, read(new AuditLogReader(file).query(query)).size());
+    }
+
+    private static List<String> filter(List<AuditEvent> events, AuditQuery query) {
+        List<String> result = new ArrayList<>();
+        for (AuditEvent event : events) {
+            if (query.matches(event)) {
+                result.add(event.getDate().getTime() + " " + event);
+            }
+        }
+
+        return result;
+    }
+
+    private static List<String> read(AuditEventIterator it) throws Exception {
+        List<String> result = new ArrayList<>();
+        try {
+            while (it.hasNext()) {
+                AuditEvent event = it.next();
+                result.add(event.getDate().getTime() + " " + event);
+            }
+        } finally {
+            it.close();
+        }
+
+        return result;
+    }
+
+}
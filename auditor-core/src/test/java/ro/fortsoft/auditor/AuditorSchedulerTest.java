@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Decebal Suiu
+ */
+public class AuditorSchedulerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void manyAuditorsFewThreads() throws Exception {
+        AuditorScheduler scheduler = new AuditorScheduler(2);
+        AsyncFileAuditor[] auditors = new AsyncFileAuditor[50];
+        for (int i = 0; i < auditors.length; i++) {
+            auditors[i] = new AsyncFileAuditor(folder.newFile("audit" + i + ".log"), SimpleAuditEventFormatter.get(),
+                16, OverflowPolicy.BLOCK, Durability.NONE, 0, scheduler);
+        }
+        assertEquals(0, scheduler.getStartedThreadCount());
+
+        for (int j = 0; j < 100; j++) {
+            for (AsyncFileAuditor auditor : auditors) {
+                auditor.audit(new AuditEvent("Login" + j));
+            }
+        }
+        assertEquals(2, scheduler.getStartedThreadCount());
+        assertTrue(scheduler.shutdown(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < auditors.length; i++) {
+            auditors[i].close();
+            File file = new File(folder.getRoot(), "audit" + i + ".log");
+            assertEquals(100, Files.readAllLines(file.toPath(), Charset.defaultCharset()).size());
+        }
+    }
+
+    @Test
+    public void writeOnCallerAfterShutdown() throws Exception {
+        AuditorScheduler scheduler = new AuditorScheduler(1);
+        scheduler.shutdown(1, TimeUnit.SECONDS);
+
+        File file = folder.newFile("audit.log");
+        AsyncFileAuditor auditor = new AsyncFileAuditor(file, SimpleAuditEventFormatter.get(),
+            16, OverflowPolicy.BLOCK, Durability.NONE, 0, scheduler);
+        for (int i = 0; i < 100; i++) {
+            auditor.audit(new AuditEvent("Login"));
+        }
+        assertEquals(0, scheduler.getStartedThreadCount());
+        assertEquals(0, auditor.getQueueSize());
+        auditor.close();
+
+        assertEquals(100, Files.readAllLines(file.toPath(), Charset.defaultCharset()).size());
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Decebal Suiu
+ */
+public class BinaryAuditEventReaderTest {
+
+    @Test
+    public void roundTrip() throws Exception {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("currency", "EUR");
+        Map<String, Object> context = new LinkedHashMap<>();
+        context.put("orderId", 10);
+        context.put("amount", 12.5);
+        context.put("items", Arrays.asList(1L, "two", null));
+        context.put("paid", true);
+        context.put("created", new Date(1514073606000L));
+        context.put("price", nested);
+
+        AuditEvent[] events = new AuditEvent[100];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new AuditEvent("Login").setUsername("user" + (i % 3)).setIp("localhost").setDate(new Date(1514073606000L + i * 10));
+        }
+        events[5].setContext(context);
+        events[7].setErrorMessage("Bad password").setSession("session");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryAuditEventWriter writer = new BinaryAuditEventWriter(out, 16, 0);
+        for (AuditEvent event : events) {
+            writer.write(event);
+        }
+        writer.close();
+        assertEquals(out.size(), writer.getPosition());
+
+        BinaryAuditEventReader reader = new BinaryAuditEventReader(new ByteArrayInputStream(out.toByteArray()));
+        for (AuditEvent expected : events) {
+            AuditEvent actual = reader.read();
+            assertEquals(expected.toString(), actual.toString());
+            assertEquals(expected.getLevel(), actual.getLevel());
+            assertEquals(expected.getDate(), actual.getDate());
+            assertEquals(expected.getContext(), actual.getContext());
+        }
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void failedEventDoesNotSpoilBlock() throws Exception {
+        Object failing = new Object() {
+
+            @Override
+            public String toString() {
+                throw new IllegalStateException("Cannot convert");
+            }
+
+        };
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryAuditEventWriter writer = new BinaryAuditEventWriter(out, 16, 0);
+        writer.write(new AuditEvent("Login").setUsername("user0").setDate(new Date(1000)));
+        try {
+            // a new dictionary entry and a timestamp before the failing value
+            writer.write(new AuditEvent("Logout").setUsername("user1").setDate(new Date(5000)).put("value", failing));
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        writer.write(new AuditEvent("Logout").setUsername("user1").setDate(new Date(2000)));
+        writer.write(new AuditEvent(null).setUsername("user0").setDate(new Date(3000)));
+        writer.close();
+
+        BinaryAuditEventReader reader = new BinaryAuditEventReader(new ByteArrayInputStream(out.toByteArray()));
+        AuditEvent event = reader.read();
+        assertEquals("Login", event.getAction());
+        assertEquals(1000, event.getTimestamp());
+        event = reader.read();
+        assertEquals("Logout", event.getAction());
+        assertEquals("user1", event.getUsername());
+        assertEquals(2000, event.getTimestamp());
+        event = reader.read();
+        assertNull(event.getAction());
+        assertEquals("user0", event.getUsername());
+        assertEquals(3000, event.getTimestamp());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void smallerThanText() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryAuditEventWriter writer = new BinaryAuditEventWriter(out);
+        int textSize = 0;
+        for (int i = 0; i < 1000; i++) {
+            AuditEvent event = new AuditEvent("Login").setUsername("user" + (i % 10)).setIp("192.168.0." + (i % 10))
+                .setSession("b844d5e4-6fc0-4ec7-b402-8e7668e5a2b" + (i % 10));
+            writer.write(event);
+            textSize += event.toString().length() + 1;
+        }
+        writer.close();
+
+        assertTrue(out.size() * 3 < textSize);
+    }
+
+}
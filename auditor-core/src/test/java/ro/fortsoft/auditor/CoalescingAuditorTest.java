@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Decebal Suiu
+ */
+public class CoalescingAuditorTest {
+
+    @Test
+    public void coalesce() {
+        final List<AuditEvent> events = Collections.synchronizedList(new ArrayList<AuditEvent>());
+        CoalescingAuditor auditor = new CoalescingAuditor(new Auditor() {
+
+            @Override
+            public void audit(AuditEvent event) {
+                events.add(event);
+            }
+
+        }, 60000);
+
+        for (int i = 0; i < 1000; i++) {
+            auditor.audit(new AuditEvent("Refresh").setUsername("decebal").setTimestamp(1000 + i));
+        }
+        auditor.audit(new AuditEvent("Refresh").setUsername("decebal").setErrorMessage("Expired"));
+        auditor.audit(new AuditEvent("Refresh").setUsername("other"));
+        auditor.close();
+
+        // first event, error, other user, summary (on close)
+        assertEquals(4, events.size());
+        assertEquals("Expired", events.get(1).getErrorMessage());
+        assertEquals("other", events.get(2).getUsername());
+
+        AuditEvent summary = events.get(3);
+        assertEquals("decebal", summary.getUsername());
+        assertEquals(999, summary.getContext().get("count"));
+        assertEquals(1001L, summary.getContext().get("firstTimestamp"));
+        assertEquals(1999L, summary.getContext().get("lastTimestamp"));
+    }
+
+    @Test
+    public void evict() {
+        final List<AuditEvent> events = Collections.synchronizedList(new ArrayList<AuditEvent>());
+        CoalescingAuditor auditor = new CoalescingAuditor(new Auditor() {
+
+            @Override
+            public void audit(AuditEvent event) {
+                events.add(event);
+            }
+
+        }, 60000, 1);
+
+        for (int i = 0; i < 100; i++) {
+            auditor.audit(new AuditEvent("Probe").setIp("10.0.0." + (i % 50)));
+        }
+        // no summary is lost: every event is passed as is or counted in a summary
+        auditor.close();
+        int total = 0;
+        for (AuditEvent event : events) {
+            total += event.hasContext() ? (Integer) event.getContext().get("count") : 1;
+        }
+        assertEquals(100, total);
+    }
+
+    @Test
+    public void closeWaitsForFlush() throws Exception {
+        final List<AuditEvent> events = Collections.synchronizedList(new ArrayList<AuditEvent>());
+        final CountDownLatch flushing = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        CoalescingAuditor auditor = new CoalescingAuditor(new Auditor() {
+
+            @Override
+            public void audit(AuditEvent event) {
+                running.incrementAndGet();
+                if (event.hasContext()) {
+                    // a slow summary, not interruptible
+                    flushing.countDown();
+                    long end = System.currentTimeMillis() + 200;
+                    while (System.currentTimeMillis() < end) {
+                        Thread.yield();
+                    }
+                }
+                events.add(event);
+                running.decrementAndGet();
+            }
+
+        }, 20);
+
+        auditor.audit(new AuditEvent("Refresh").setUsername("decebal"));
+        auditor.audit(new AuditEvent("Refresh").setUsername("decebal"));
+        assertTrue(flushing.await(5, TimeUnit.SECONDS));
+        auditor.close();
+
+        // the running flush is finished before close returns
+        assertEquals(0, running.get());
+        assertEquals(2, events.size());
+
+        // after close the events are passed, not coalesced
+        auditor.audit(new AuditEvent("Refresh").setUsername("decebal"));
+        auditor.audit(new AuditEvent("Refresh").setUsername("decebal"));
+        assertEquals(4, events.size());
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Decebal Suiu
+ */
+public class CompositeAuditorTest {
+
+    @Test
+    public void slowSinkDoesNotBlock() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger fastCount = new AtomicInteger();
+        Auditor slow = new Auditor() {
+
+            @Override
+            public void audit(AuditEvent event) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+        };
+        Auditor fast = new Auditor() {
+
+            @Override
+            public void audit(AuditEvent event) {
+                fastCount.incrementAndGet();
+            }
+
+        };
+
+        AsyncAuditor slowSink = new AsyncAuditor(slow, 16, OverflowPolicy.DROP_NEWEST);
+        AsyncAuditor fastSink = new AsyncAuditor(fast, 1024, OverflowPolicy.BLOCK);
+        CompositeAuditor auditor = new CompositeAuditor(slowSink, fastSink);
+        for (int i = 0; i < 100; i++) {
+            auditor.audit(new AuditEvent("Login"));
+        }
+
+        // the slow sink drops, the fast sink receives all events
+        assertTrue(slowSink.getDroppedCount() > 0);
+        assertEquals(100, fastSink.getEnqueuedCount());
+
+        release.countDown();
+        auditor.close();
+        assertEquals(100, fastCount.get());
+        assertEquals(100, slowSink.getEnqueuedCount() + slowSink.getDroppedCount());
+    }
+
+    @Test
+    public void failingSink() throws Exception {
+        AsyncAuditor sink = new AsyncAuditor(new Auditor() {
+
+            @Override
+            public void audit(AuditEvent event) {
+                throw new AuditException("Disk full");
+            }
+
+        });
+        CompositeAuditor auditor = new CompositeAuditor(sink);
+        auditor.audit(new AuditEvent("Login"));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sink.getFailureCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, sink.getFailureCount());
+        assertFalse(auditor.isHealthy());
+
+        // the error goes to the future
+        try {
+            auditor.auditAsync(new AuditEvent("Login")).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("Disk full", e.getCause().getMessage());
+        }
+        auditor.close();
+    }
+
+    @Test(timeout = 10000)
+    public void sinkErrorDoesNotStopWorker() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        AsyncAuditor auditor = new AsyncAuditor(new Auditor() {
+
+            @Override
+            public void audit(AuditEvent event) {
+                if ("Fail".equals(event.getAction())) {
+                    throw new AssertionError("Broken appender");
+                }
+                count.incrementAndGet();
+            }
+
+        }, 4, OverflowPolicy.BLOCK);
+
+        // the producers block when the buffer is full, they must not wait forever
+        auditor.audit(new AuditEvent("Fail"));
+        for (int i = 0; i < 100; i++) {
+            auditor.audit(new AuditEvent("Login"));
+        }
+        auditor.close();
+
+        assertEquals(100, count.get());
+        assertEquals(1, auditor.getFailureCount());
+        assertTrue(auditor.getLastFailure() instanceof AssertionError);
+    }
+
+    @Test
+    public void dropOldestFailsFuture() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+        AsyncAuditor auditor = new AsyncAuditor(new Auditor() {
+
+            @Override
+            public void audit(AuditEvent event) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                written.add(event.getAction());
+            }
+
+        }, 2, OverflowPolicy.DROP_OLDEST);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(auditor.auditAsync(new AuditEvent("Login" + i)));
+        }
+        release.countDown();
+        auditor.close();
+
+        // a future succeeds only if its event was written
+        assertTrue(auditor.getDroppedCount() > 0);
+        for (int i = 0; i < futures.size(); i++) {
+            boolean succeeded;
+            try {
+                futures.get(i).get(5, TimeUnit.SECONDS);
+                succeeded = true;
+            } catch (ExecutionException e) {
+                succeeded = false;
+            }
+            assertEquals("Login" + i, written.contains("Login" + i), succeeded);
+        }
+    }
+
+    @Test
+    public void failedEventNeverAcknowledged() throws Exception {
+        final AsyncAuditor auditor = new AsyncAuditor(new Auditor() {
+
+            @Override
+            public void audit(AuditEvent event) {
+                if ("Fail".equals(event.getAction())) {
+                    throw new AuditException("Rejected");
+                }
+            }
+
+        }, 64, OverflowPolicy.BLOCK);
+
+        final AtomicInteger acknowledgedFailures = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 500; j++) {
+                        String action = (j % 2 == 0) ? "Fail" : "Login";
+                        try {
+                            auditor.auditAsync(new AuditEvent(action)).get(5, TimeUnit.SECONDS);
+                            if ("Fail".equals(action)) {
+                                acknowledgedFailures.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            // expected for a failed event (and for the events of its batch)
+                        }
+                    }
+                }
+
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        auditor.close();
+
+        // a failed event never gets the result of another batch
+        assertEquals(0, acknowledgedFailures.get());
+    }
+
+}
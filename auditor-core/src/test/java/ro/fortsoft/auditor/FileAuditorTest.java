@@ -0,0 +1,238 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Decebal Suiu
+ */
+public class FileAuditorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void auditAsync() throws Exception {
+        File file = folder.newFile("audit.log");
+        File asyncFile = folder.newFile("async-audit.log");
+        FileAuditor[] auditors = new FileAuditor[] {
+            new FileAuditor(file),
+            new AsyncFileAuditor(asyncFile, SimpleAuditEventFormatter.get(), 16, OverflowPolicy.BLOCK)
+        };
+        for (FileAuditor auditor : auditors) {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(auditor.auditAsync(new AuditEvent("Login")));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+        }
+
+        // completed futures mean events in file, before close
+        assertEquals(100, readLines(file).size());
+        assertEquals(100, readLines(asyncFile).size());
+
+        for (FileAuditor auditor : auditors) {
+            auditor.close();
+        }
+        try {
+            auditors[1].auditAsync(new AuditEvent("Login")).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AuditException);
+        }
+    }
+
+    @Test
+    public void groupCommit() throws Exception {
+        File file = folder.newFile("audit.log");
+        final FileAuditor auditor = new FileAuditor(file, SimpleAuditEventFormatter.get(), Durability.GROUP_COMMIT, 0);
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100; j++) {
+                        auditor.audit(new AuditEvent("Login"));
+                    }
+                }
+
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // all events are on disk before close
+        assertEquals(800, readLines(file).size());
+        auditor.close();
+    }
+
+    @Test
+    public void awaitDurable() throws Exception {
+        File file = folder.newFile("audit.log");
+        FileAuditor auditor = new FileAuditor(file, SimpleAuditEventFormatter.get(), Durability.INTERVAL, 60000);
+        auditor.audit(new AuditEvent("Login"));
+        auditor.awaitDurable();
+
+        assertEquals(1, readLines(file).size());
+        auditor.close();
+    }
+
+    @Test
+    public void closeWhileSyncing() throws Exception {
+        // the close must not interrupt a running fsync (it closes the file channel)
+        for (int run = 0; run < 50; run++) {
+            File file = folder.newFile("audit" + run + ".log");
+            FileAuditor auditor = new FileAuditor(file, SimpleAuditEventFormatter.get(), Durability.INTERVAL, 1);
+            for (int i = 0; i < 2000; i++) {
+                auditor.audit(new AuditEvent("Login"));
+            }
+            auditor.close();
+
+            assertEquals(2000, readLines(file).size());
+        }
+    }
+
+    @Test
+    public void asyncAwaitDurable() throws Exception {
+        File file = folder.newFile("audit.log");
+        AsyncFileAuditor auditor = new AsyncFileAuditor(file, SimpleAuditEventFormatter.get(), 64, OverflowPolicy.BLOCK, Durability.GROUP_COMMIT, 0);
+        for (int i = 0; i < 1000; i++) {
+            auditor.audit(new AuditEvent("Login"));
+        }
+        auditor.awaitDurable();
+
+        assertEquals(1000, readLines(file).size());
+        auditor.close();
+    }
+
+    @Test
+    public void spillReplayResumesAfterFailure() throws Exception {
+        File file = folder.newFile("audit.log");
+        SpillJournal journal = new SpillJournal(new File(file.getPath() + ".spill"), SimpleAuditEventFormatter.get());
+        for (int i = 0; i < 1000; i++) {
+            journal.append(new AuditEvent("Login" + i));
+        }
+
+        // the third write to file stops after half of bytes
+        final AtomicInteger writes = new AtomicInteger();
+        FileOutputStream out = new FileOutputStream(file, true) {
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (writes.incrementAndGet() == 3) {
+                    super.write(b, off, len / 2);
+                    throw new IOException("Disk full");
+                }
+                super.write(b, off, len);
+            }
+
+        };
+        FileAuditor auditor = new FileAuditor(out, SimpleAuditEventFormatter.get(), Durability.NONE, 0);
+        auditor.audit(new AuditEvent("Start"));
+        try {
+            auditor.replay(journal);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        auditor.replay(journal);
+        assertFalse(journal.isActive());
+        auditor.audit(new AuditEvent("Stop"));
+        auditor.close();
+        journal.close();
+
+        // no line is repeated or torn
+        List<String> lines = readLines(file);
+        assertEquals(1002, lines.size());
+        assertTrue(lines.get(0).endsWith("- Start"));
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(lines.get(i + 1).endsWith("- Login" + i));
+        }
+        assertTrue(lines.get(1001).endsWith("- Stop"));
+    }
+
+    @Test
+    public void formatterFailureTerminatesLine() throws Exception {
+        File file = folder.newFile("audit.log");
+        AuditEventFormatter formatter = new SimpleAuditEventFormatter() {
+
+            @Override
+            public void formatTo(AuditEvent event, Appendable out) throws IOException {
+                super.formatTo(event, out);
+                if ("Fail".equals(event.getAction())) {
+                    throw new IllegalStateException("Cannot format");
+                }
+            }
+
+        };
+        FileAuditor auditor = new FileAuditor(file, formatter);
+        auditor.audit(new AuditEvent("Login1"));
+        try {
+            auditor.audit(new AuditEvent("Fail"));
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        auditor.audit(new AuditEvent("Login2"));
+        assertTrue(auditor.auditAsync(new AuditEvent("Fail")).isCompletedExceptionally());
+        auditor.audit(new AuditEvent("Login3"));
+        try {
+            auditor.auditAll(Arrays.asList(new AuditEvent("Fail"), new AuditEvent("Login")));
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        auditor.audit(new AuditEvent("Login4"));
+        auditor.close();
+
+        // the torn lines are terminated, the next events start on their own lines
+        List<String> lines = readLines(file);
+        assertEquals(7, lines.size());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(lines.get(2 * i).endsWith("- Login" + (i + 1)));
+        }
+    }
+
+    private static List<String> readLines(File file) throws Exception {
+        return Files.readAllLines(file.toPath(), Charset.defaultCharset());
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Decebal Suiu
+ */
+public class InstrumentedAuditorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500000, snapshot.getP50(), 500000 * 0.125);
+        assertEquals(990000, snapshot.getP99(), 990000 * 0.125);
+        assertEquals(1000000, snapshot.getMax(), 1000000 * 0.125);
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        InstrumentedAuditEventFormatter formatter = new InstrumentedAuditEventFormatter(SimpleAuditEventFormatter.get());
+        FileAuditor fileAuditor = new FileAuditor(folder.newFile("audit.log"), formatter);
+        InstrumentedAuditor auditor = new InstrumentedAuditor(fileAuditor, formatter);
+        for (int i = 0; i < 100; i++) {
+            auditor.audit(new AuditEvent("Login"));
+        }
+        fileAuditor.close();
+
+        AuditorMetrics metrics = auditor.getMetrics();
+        assertEquals(100, metrics.getEventCount());
+        assertEquals(0, metrics.getErrorCount());
+        assertEquals(-1, metrics.getQueueSize());
+        assertTrue(metrics.getBytesWritten() > 0);
+        assertEquals(100, metrics.getLatency().getCount());
+        assertEquals(100, metrics.getFormatLatency().getCount());
+
+        auditor.registerMBean("test");
+        try {
+            ObjectName name = new ObjectName("ro.fortsoft.auditor:type=Auditor,name=\"test\"");
+            assertEquals(100L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "EventCount"));
+        } finally {
+            auditor.unregisterMBean();
+        }
+    }
+
+    @Test
+    public void auditAsyncIsForwarded() {
+        final CompletableFuture<Void> pending = new CompletableFuture<>();
+        InstrumentedAuditor auditor = new InstrumentedAuditor(new Auditor() {
+
+            @Override
+            public void audit(AuditEvent event) {
+                throw new IllegalStateException("Not expected");
+            }
+
+            @Override
+            public CompletableFuture<Void> auditAsync(AuditEvent event) {
+                return pending;
+            }
+
+        });
+
+        // the future of the wrapped auditor, not completed on enqueue
+        assertSame(pending, auditor.auditAsync(new AuditEvent("Login")));
+        assertSame(pending, new CoalescingAuditor(auditor, 1000).auditAsync(new AuditEvent("Login")));
+        assertSame(pending, new PublishingAuditor(auditor).auditAsync(new AuditEvent("Login")));
+        assertSame(pending, new AggregatingAuditor(auditor).auditAsync(new AuditEvent("Login")));
+        assertEquals(4, auditor.getEventCount());
+    }
+
+}
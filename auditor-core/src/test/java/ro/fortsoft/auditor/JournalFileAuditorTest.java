@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Decebal Suiu
+ */
+public class JournalFileAuditorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void crc32c() {
+        byte[] bytes = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0xE3069283, Crc32c.compute(bytes, 0, bytes.length));
+
+        Crc32c checksum = new Crc32c();
+        checksum.update(bytes, 0, 4);
+        checksum.update(bytes[4]);
+        checksum.update(bytes, 5, 4);
+        assertEquals(0xE3069283L, checksum.getValue());
+    }
+
+    @Test
+    public void recoverTornTail() throws Exception {
+        File file = new File(folder.getRoot(), "audit.journal");
+        JournalFileAuditor auditor = new JournalFileAuditor(file, SimpleAuditEventFormatter.get(), 1024, 0);
+        for (int i = 0; i < 100; i++) {
+            auditor.audit(new AuditEvent("Login").setUsername("user" + i));
+        }
+        auditor.sync();
+        long synced = file.length();
+        for (int i = 100; i < 150; i++) {
+            auditor.audit(new AuditEvent("Login").setUsername("user" + i));
+        }
+        auditor.close();
+        long valid = file.length();
+
+        // a complete frame with a bad checksum and a torn frame
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[] { 0, 0, 0, 3, 1, 2, 3, 4, 'a', 'b', 'c' });
+            out.write(new byte[] { 0, 0, 0, 100, 0, 0 });
+        }
+
+        auditor = new JournalFileAuditor(file, SimpleAuditEventFormatter.get(), 1024, 0);
+        JournalFileAuditor.RecoveryResult result = auditor.getRecoveryResult();
+        assertEquals(valid, result.getEndPosition());
+        assertEquals(2, result.getLostRecords());
+        assertEquals(17, result.getTruncatedBytes());
+        assertTrue(result.getScanStart() > synced);
+        assertEquals(0, result.getRecoveredRecords());
+        auditor.audit(new AuditEvent("Logout").setUsername("user150"));
+        auditor.close();
+
+        List<String> records = readRecords(file);
+        assertEquals(151, records.size());
+        for (int i = 0; i < 150; i++) {
+            assertTrue(records.get(i).endsWith("user" + i + " - Login"));
+        }
+        assertTrue(records.get(150).endsWith("user150 - Logout"));
+    }
+
+    @Test
+    public void scanFromCheckpoint() throws Exception {
+        File file = new File(folder.getRoot(), "audit.journal");
+        JournalFileAuditor auditor = new JournalFileAuditor(file, SimpleAuditEventFormatter.get(), 1024, 0);
+        for (int i = 0; i < 100; i++) {
+            auditor.audit(new AuditEvent("Login").setUsername("user" + i));
+        }
+        auditor.sync();
+        long synced = file.length();
+        for (int i = 0; i < 10; i++) {
+            auditor.audit(new AuditEvent("Logout").setUsername("user" + i));
+        }
+        auditor.flush();
+        // simulate a crash (no close, so no checkpoint for the last events)
+
+        JournalFileAuditor.RecoveryResult result = new JournalFileAuditor(file).getRecoveryResult();
+        assertEquals(synced, result.getScanStart());
+        assertEquals(10, result.getRecoveredRecords());
+        assertEquals(0, result.getLostRecords());
+        assertEquals(file.length(), result.getEndPosition());
+    }
+
+    @Test
+    public void closeWhileSyncing() throws Exception {
+        // the close must not interrupt a running fsync (it closes the file channel)
+        for (int run = 0; run < 50; run++) {
+            File file = new File(folder.getRoot(), "audit" + run + ".journal");
+            JournalFileAuditor auditor = new JournalFileAuditor(file, SimpleAuditEventFormatter.get(), 1024, 1);
+            for (int i = 0; i < 2000; i++) {
+                auditor.audit(new AuditEvent("Login").setUsername("user" + i));
+            }
+            auditor.close();
+
+            assertEquals(2000, readRecords(file).size());
+        }
+    }
+
+    @Test
+    public void formatterFailureLeavesNoFrame() throws Exception {
+        File file = new File(folder.getRoot(), "audit.journal");
+        AuditEventFormatter formatter = new AuditEventFormatter() {
+
+            @Override
+            public String formatEvent(AuditEvent event) {
+                if ("Fail".equals(event.getAction())) {
+                    throw new IllegalStateException("Cannot format");
+                }
+
+                return SimpleAuditEventFormatter.get().formatEvent(event);
+            }
+
+        };
+        JournalFileAuditor auditor = new JournalFileAuditor(file, formatter, 1024, 0);
+        for (int i = 0; i < 3; i++) {
+            auditor.audit(new AuditEvent("Login").setUsername("user" + i));
+        }
+        auditor.flush();
+        try {
+            auditor.audit(new AuditEvent("Fail"));
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        for (int i = 3; i < 13; i++) {
+            auditor.audit(new AuditEvent("Login").setUsername("user" + i));
+        }
+        auditor.flush();
+        // simulate a crash (no close, so the last events are recovered by scan)
+
+        JournalFileAuditor.RecoveryResult result = new JournalFileAuditor(file).getRecoveryResult();
+        assertEquals(0, result.getLostRecords());
+        assertEquals(0, result.getTruncatedBytes());
+        List<String> records = readRecords(file);
+        assertEquals(13, records.size());
+        for (int i = 0; i < 13; i++) {
+            assertTrue(records.get(i).endsWith("user" + i + " - Login"));
+        }
+    }
+
+    private static List<String> readRecords(File file) throws IOException {
+        List<String> records = new ArrayList<>();
+        try (JournalReader reader = new JournalReader(new FileInputStream(file))) {
+            String record;
+            while ((record = reader.read()) != null) {
+                records.add(record);
+            }
+        }
+
+        return records;
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Decebal Suiu
+ */
+public class JsonAuditEventFormatterTest {
+
+    private JsonAuditEventFormatter formatter = JsonAuditEventFormatter.get();
+
+    @Test
+    public void formatEvent() {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("id", 7L);
+        nested.put("paid", true);
+        AuditEvent event = new AuditEvent("Order").setUsername("decebal").setTimestamp(1514073606000L)
+            .put("amount", 10)
+            .put("items", Arrays.asList("a", null, 2.5))
+            .put("customer", nested)
+            .put("created", new Date(1000))
+            .setErrorMessage("Failed");
+
+        String expected = "{\"timestamp\":1514073606000,\"level\":\"ERROR\",\"action\":\"Order\",\"username\":\"decebal\","
+            + "\"context\":" + contextJson(event) + ",\"errorMessage\":\"Failed\"}";
+        assertEquals(expected, formatter.formatEvent(event));
+        assertEquals(expected, formatToBytes(event));
+    }
+
+    @Test
+    public void escape() {
+        AuditEvent event = new AuditEvent("Login \"x\"\\\n\t\u0001 é€😀").setTimestamp(0);
+        String expected = "{\"timestamp\":0,\"level\":\"INFO\",\"action\":\"Login \\\"x\\\"\\\\\\n\\t\\u0001 é€😀\"}";
+
+        assertEquals(expected, formatter.formatEvent(event));
+        assertEquals(expected, formatToBytes(event));
+    }
+
+    private String formatToBytes(AuditEvent event) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        formatter.formatTo(event, buffer);
+        buffer.flip();
+
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    private static String contextJson(AuditEvent event) {
+        // the order of context entries is the order of HashMap
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, Object> entry : event.getContext().entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append('"').append(entry.getKey()).append("\":");
+            switch (entry.getKey()) {
+                case "amount":
+                    sb.append("10");
+                    break;
+                case "items":
+                    sb.append("[\"a\",null,2.5]");
+                    break;
+                case "customer":
+                    sb.append("{\"id\":7,\"paid\":true}");
+                    break;
+                default:
+                    sb.append("1000");
+            }
+        }
+
+        return sb.append('}').toString();
+    }
+
+}
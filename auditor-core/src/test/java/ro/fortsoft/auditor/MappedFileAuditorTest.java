@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Decebal Suiu
+ */
+public class MappedFileAuditorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rollSegments() throws Exception {
+        final File file = new File(folder.getRoot(), "audit.log");
+        final MappedFileAuditor auditor = new MappedFileAuditor(file, SimpleAuditEventFormatter.get(), 4096);
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final String username = "user" + i;
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 500; j++) {
+                        auditor.audit(new AuditEvent("Login").setUsername(username).setSession(String.valueOf(j)));
+                    }
+                }
+
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        auditor.close();
+
+        List<Long> indexes = SegmentFiles.indexes(file);
+        assertTrue(indexes.size() > 1);
+
+        Set<String> lines = new HashSet<>();
+        for (long index : indexes) {
+            File segment = SegmentFiles.segment(file, index);
+            for (String line : Files.readAllLines(segment.toPath(), StandardCharsets.UTF_8)) {
+                assertTrue(line, line.endsWith("- Login"));
+                lines.add(line.substring(line.indexOf(']')));
+            }
+        }
+        assertEquals(2000, lines.size());
+    }
+
+    @Test(timeout = 60000)
+    public void closeWhileWriting() throws Exception {
+        for (int run = 0; run < 50; run++) {
+            File file = new File(folder.newFolder(), "audit.log");
+            final MappedFileAuditor auditor = new MappedFileAuditor(file, SimpleAuditEventFormatter.get(), 4096);
+
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread() {
+
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < 200; j++) {
+                            auditor.audit(new AuditEvent("Login").setSession(String.valueOf(j)));
+                        }
+                    }
+
+                };
+                threads[i].start();
+            }
+            // writers cross the segment boundary while the auditor is closed
+            auditor.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            for (long index : SegmentFiles.indexes(file)) {
+                File segment = SegmentFiles.segment(file, index);
+                for (String line : Files.readAllLines(segment.toPath(), StandardCharsets.UTF_8)) {
+                    assertTrue(line, line.endsWith("- Login"));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Decebal Suiu
+ */
+public class NetworkAuditorTest {
+
+    private ServerSocket collector;
+
+    @Before
+    public void setUp() throws Exception {
+        collector = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        collector.setSoTimeout(10000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        collector.close();
+    }
+
+    @Test
+    public void sendFrames() throws Exception {
+        NetworkAuditor auditor = createAuditor();
+        for (int i = 0; i < 1000; i++) {
+            auditor.audit(new AuditEvent("Login" + i));
+        }
+
+        try (Socket socket = collector.accept()) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(readFrame(in).contains("\"action\":\"Login" + i + "\""));
+            }
+        }
+        auditor.close();
+    }
+
+    @Test
+    public void reconnect() throws Exception {
+        NetworkAuditor auditor = createAuditor();
+        for (int i = 0; i < 10; i++) {
+            auditor.audit(new AuditEvent("Login" + i));
+        }
+        try (Socket socket = collector.accept()) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (int i = 0; i < 10; i++) {
+                readFrame(in);
+            }
+        }
+
+        // the collector closed the connection, the events wait in backlog
+        long deadline = System.currentTimeMillis() + 5000;
+        while (auditor.isConnected() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(auditor.isConnected());
+        for (int i = 10; i < 100; i++) {
+            auditor.audit(new AuditEvent("Login" + i));
+        }
+
+        try (Socket socket = collector.accept()) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (int i = 10; i < 100; i++) {
+                assertTrue(readFrame(in).contains("\"action\":\"Login" + i + "\""));
+            }
+        }
+        auditor.close();
+        assertEquals(0, auditor.getDroppedCount());
+    }
+
+    @Test
+    public void formatterFailureSkipsEvent() throws Exception {
+        AuditEventFormatter formatter = new AuditEventFormatter() {
+
+            @Override
+            public String formatEvent(AuditEvent event) {
+                if ("Fail".equals(event.getAction())) {
+                    throw new IllegalStateException("Cannot format");
+                }
+
+                return JsonAuditEventFormatter.get().formatEvent(event);
+            }
+
+        };
+        InetSocketAddress address = new InetSocketAddress(collector.getInetAddress(), collector.getLocalPort());
+        NetworkAuditor auditor = new NetworkAuditor(address, formatter, 1024, 4096);
+        for (int i = 0; i < 100; i++) {
+            auditor.audit(new AuditEvent((i % 10 == 0) ? "Fail" : "Login" + i));
+        }
+
+        // the worker survives, the other events are sent
+        try (Socket socket = collector.accept()) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (int i = 0; i < 100; i++) {
+                if (i % 10 != 0) {
+                    assertTrue(readFrame(in).contains("\"action\":\"Login" + i + "\""));
+                }
+            }
+            assertEquals(10, auditor.getFailureCount());
+            assertEquals("Cannot format", auditor.getLastFailure().getMessage());
+        }
+        auditor.close();
+    }
+
+    @Test
+    public void unresolvedAddress() throws Exception {
+        InetSocketAddress address = InetSocketAddress.createUnresolved("collector.invalid", 9999);
+        NetworkAuditor auditor = new NetworkAuditor(address, JsonAuditEventFormatter.get(), 16, 4096);
+        auditor.audit(new AuditEvent("Login"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (auditor.getLastFailure() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(auditor.getLastFailure() instanceof UnresolvedAddressException);
+        assertFalse(auditor.isHealthy());
+        auditor.close();
+    }
+
+    private NetworkAuditor createAuditor() {
+        InetSocketAddress address = new InetSocketAddress(collector.getInetAddress(), collector.getLocalPort());
+
+        return new NetworkAuditor(address, JsonAuditEventFormatter.get(), 1024, 4096);
+    }
+
+    private static String readFrame(DataInputStream in) throws Exception {
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Decebal Suiu
+ */
+public class PublishingAuditorTest {
+
+    @Test
+    public void filterAndDrop() throws Exception {
+        final AtomicInteger delegateCount = new AtomicInteger();
+        PublishingAuditor auditor = new PublishingAuditor(new Auditor() {
+
+            @Override
+            public void audit(AuditEvent event) {
+                delegateCount.incrementAndGet();
+            }
+
+        });
+        Subscription errors = auditor.subscribe(event -> event.getLevel() == AuditEvent.ERROR, 16, SlowConsumerPolicy.DROP);
+        Subscription all = auditor.subscribe(null, 16, SlowConsumerPolicy.DROP);
+
+        for (int i = 0; i < 100; i++) {
+            AuditEvent event = new AuditEvent("Login" + i);
+            if (i % 10 == 0) {
+                event.setErrorMessage("Bad password");
+            }
+            auditor.audit(event);
+        }
+
+        assertEquals(100, delegateCount.get());
+        assertEquals(10, errors.getQueueSize());
+        assertEquals(0, errors.getDroppedCount());
+        assertEquals("Login0", errors.poll().getAction());
+        assertEquals("Login10", errors.poll(1, TimeUnit.SECONDS).getAction());
+
+        // the slow subscriber keeps the first events and drops the rest
+        assertEquals(16, all.getQueueSize());
+        assertEquals(84, all.getDroppedCount());
+        assertFalse(all.isDisconnected());
+    }
+
+    @Test
+    public void disconnectSlowSubscriber() throws Exception {
+        PublishingAuditor auditor = new PublishingAuditor();
+        Subscription slow = auditor.subscribe(null, 4, SlowConsumerPolicy.DISCONNECT);
+        final Subscription fast = auditor.subscribe();
+        final AtomicInteger received = new AtomicInteger();
+        Thread consumer = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    while (received.get() < 100 && fast.poll(5, TimeUnit.SECONDS) != null) {
+                        received.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    // stop
+                }
+            }
+
+        };
+        consumer.start();
+
+        for (int i = 0; i < 100; i++) {
+            auditor.audit(new AuditEvent("Login"));
+        }
+        consumer.join();
+
+        assertTrue(slow.isDisconnected());
+        assertEquals(1, auditor.getSubscriberCount());
+        assertEquals(4, slow.getQueueSize());
+        assertEquals(100, received.get());
+
+        // the buffered events can be polled after disconnect
+        for (int i = 0; i < 4; i++) {
+            slow.poll();
+        }
+        assertNull(slow.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void faultyFilterDisconnects() {
+        PublishingAuditor auditor = new PublishingAuditor();
+        Subscription faulty = auditor.subscribe(event -> event.getAction().length() > 5, 16, SlowConsumerPolicy.DROP);
+        Subscription all = auditor.subscribe();
+
+        // the filter throws NPE for an event without action
+        auditor.audit(new AuditEvent(null));
+        auditor.audit(new AuditEvent("Logout"));
+
+        assertTrue(faulty.isDisconnected());
+        assertTrue(faulty.getFailure() instanceof NullPointerException);
+        assertEquals(1, auditor.getSubscriberCount());
+        assertEquals(2, all.getQueueSize());
+    }
+
+}
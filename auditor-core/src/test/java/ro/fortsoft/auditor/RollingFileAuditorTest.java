@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Decebal Suiu
+ */
+public class RollingFileAuditorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rollAndCompress() throws Exception {
+        File file = new File(folder.getRoot(), "audit.log");
+        RollingFileAuditor auditor = new RollingFileAuditor(file, SimpleAuditEventFormatter.get(), 32 * 1024, new BlockCompressor(6, 1024));
+        for (int i = 0; i < 2000; i++) {
+            auditor.audit(new AuditEvent("Login").setUsername("user" + i));
+        }
+        auditor.close();
+
+        assertTrue(SegmentFiles.indexes(file).isEmpty());
+        List<Long> indexes = SegmentFiles.indexes(file, BlockCompressor.SUFFIX);
+        assertTrue(indexes.size() > 1);
+
+        int count = 0;
+        for (Long index : indexes) {
+            File segment = new File(SegmentFiles.segment(file, index).getPath() + BlockCompressor.SUFFIX);
+            try (CompressedSegmentReader reader = new CompressedSegmentReader(segment)) {
+                BufferedReader lines = new BufferedReader(new InputStreamReader(reader.openStream(0), StandardCharsets.UTF_8));
+                String line;
+                while ((line = lines.readLine()) != null) {
+                    assertTrue(line.endsWith("- Login"));
+                    count++;
+                }
+            }
+        }
+        assertEquals(2000, count);
+    }
+
+    @Test
+    public void rollOnAgeWithRetention() throws Exception {
+        File file = new File(folder.getRoot(), "audit.log");
+        RollingFileAuditor auditor = new RollingFileAuditor(file, SimpleAuditEventFormatter.get(), Long.MAX_VALUE, 20, 3, null);
+        for (int i = 0; i < 10; i++) {
+            // each event is older than the segment age, so each event rolls (the first segment stays empty)
+            Thread.sleep(30);
+            auditor.audit(new AuditEvent("Login").setUsername("user" + i));
+        }
+        File segment = auditor.getSegment();
+        assertEquals(SegmentFiles.segment(file, 10), segment);
+
+        // the next segment is ready before the roll
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!SegmentFiles.segment(file, 11).exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(SegmentFiles.segment(file, 11).exists());
+        auditor.close();
+
+        // only the last three segments, without the not used next segment
+        assertEquals(Arrays.asList(8L, 9L, 10L), SegmentFiles.indexes(file));
+        assertEquals("user9 - Login", readLastField(SegmentFiles.segment(file, 10)));
+    }
+
+    @Test
+    public void seekBlock() throws Exception {
+        File file = new File(folder.getRoot(), "audit.log");
+        RollingFileAuditor auditor = new RollingFileAuditor(file, SimpleAuditEventFormatter.get(), Long.MAX_VALUE, new BlockCompressor(1, 512));
+        for (int i = 0; i < 1000; i++) {
+            auditor.audit(new AuditEvent("Login").setUsername("user" + i));
+        }
+        auditor.close();
+
+        File segment = new File(SegmentFiles.segment(file, 0).getPath() + BlockCompressor.SUFFIX);
+        try (CompressedSegmentReader reader = new CompressedSegmentReader(segment)) {
+            assertTrue(reader.getBlockCount() > 10);
+            int block = reader.findBlock(reader.getUncompressedOffset(7) + 1);
+            assertEquals(7, block);
+
+            // a block holds whole lines
+            String text = new String(reader.readBlock(block), StandardCharsets.UTF_8);
+            assertTrue(text.startsWith("["));
+            assertTrue(text.endsWith("\n"));
+            assertFalse(text.isEmpty());
+        }
+    }
+
+    @Test
+    public void compressionFailure() throws Exception {
+        File file = new File(folder.getRoot(), "audit.log");
+        // a temporary file left by a compression that didn't finish
+        File leftover = new File(SegmentFiles.segment(file, 0).getPath() + BlockCompressor.SUFFIX + BlockCompressor.TEMPORARY_SUFFIX);
+        assertTrue(leftover.createNewFile());
+        BlockCompressor compressor = new BlockCompressor() {
+
+            @Override
+            void compress(File source, File target) throws IOException {
+                new FileOutputStream(target).close();
+                throw new IOException("Cannot compress");
+            }
+
+        };
+        RollingFileAuditor auditor = new RollingFileAuditor(file, SimpleAuditEventFormatter.get(), 100, 0, 2, compressor);
+        assertFalse(leftover.exists());
+
+        // the failure is reported by a next audit call
+        AuditException error = null;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (error == null && System.currentTimeMillis() < deadline) {
+            try {
+                auditor.audit(new AuditEvent("Login"));
+            } catch (AuditException e) {
+                error = e;
+            }
+        }
+        auditor.close();
+
+        assertTrue(error != null);
+        assertEquals("Cannot compress", error.getCause().getMessage());
+        // the segments are kept not compressed, without temporary files
+        assertFalse(SegmentFiles.indexes(file).isEmpty());
+        assertTrue(SegmentFiles.indexes(file, BlockCompressor.SUFFIX).isEmpty());
+        assertTrue(SegmentFiles.indexes(file, BlockCompressor.SUFFIX + BlockCompressor.TEMPORARY_SUFFIX).isEmpty());
+    }
+
+    private static String readLastField(File file) throws Exception {
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        String line = lines.get(lines.size() - 1);
+
+        return line.substring(line.indexOf("] ") + 2);
+    }
+
+}
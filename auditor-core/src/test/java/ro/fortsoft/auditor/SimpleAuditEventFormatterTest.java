@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Decebal Suiu
+ */
+public class SimpleAuditEventFormatterTest {
+
+    private SimpleAuditEventFormatter formatter;
+    private Date date;
+
+    @Before
+    public void setUp() throws Exception {
+        formatter = new SimpleAuditEventFormatter();
+        date = new SimpleDateFormat("MM/dd/yyyy HH:mm:ss").parse("12/24/2017 02:00:06");
+    }
+
+    @Test
+    public void formatEvent() {
+        AuditEvent event = new AuditEvent("Login").setUsername("decebal").setIp("localhost").setDate(date);
+
+        assertEquals("[12/24/2017 02:00:06] decebal localhost - Login", formatter.formatEvent(event));
+    }
+
+    @Test
+    public void formatEventWithContextAndError() {
+        Map<String, Object> context = new LinkedHashMap<>();
+        context.put("orderId", 10);
+        context.put("status", "new");
+        AuditEvent event = new AuditEvent("Order").setDate(date).setContext(context).setErrorMessage("Failed");
+
+        assertEquals("[12/24/2017 02:00:06] - Order " + context + " - Failed", formatter.formatEvent(event));
+    }
+
+    @Test
+    public void formatToByteBuffer() {
+        AuditEvent event = new AuditEvent("Login é€😀").setUsername("decebal").setDate(date);
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        formatter.formatTo(event, buffer);
+        buffer.flip();
+
+        assertEquals(formatter.formatEvent(event), StandardCharsets.UTF_8.decode(buffer).toString());
+    }
+
+    @Test
+    public void formatToByteBufferWithoutAction() {
+        AuditEvent event = new AuditEvent(null).setDate(date);
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        formatter.formatTo(event, buffer);
+        buffer.flip();
+
+        assertEquals(formatter.formatEvent(event), StandardCharsets.UTF_8.decode(buffer).toString());
+    }
+
+}
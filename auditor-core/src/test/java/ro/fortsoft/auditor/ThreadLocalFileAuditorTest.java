@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Decebal Suiu
+ */
+public class ThreadLocalFileAuditorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sequenceNumbers() throws Exception {
+        File file = folder.newFile("audit.log");
+        // small buffers to exercise the hand off (and the large event path)
+        final ThreadLocalFileAuditor auditor = new ThreadLocalFileAuditor(file, SimpleAuditEventFormatter.get(), 256, 10);
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 500; j++) {
+                        AuditEvent event = new AuditEvent("Login");
+                        if (j % 100 == 0) {
+                            event.getContext().put("data", new String(new char[1000]).replace('\0', 'x'));
+                        }
+                        auditor.audit(event);
+                    }
+                }
+
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        auditor.close();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(4000, lines.size());
+        BitSet sequences = new BitSet();
+        for (String line : lines) {
+            sequences.set(Integer.parseInt(line.substring(0, line.indexOf(' '))));
+            assertTrue(line.contains("Login"));
+        }
+        assertEquals(4000, sequences.cardinality());
+        assertEquals(4000, sequences.length());
+    }
+
+    @Test
+    public void agedBuffer() throws Exception {
+        File file = folder.newFile("audit.log");
+        ThreadLocalFileAuditor auditor = new ThreadLocalFileAuditor(file, SimpleAuditEventFormatter.get(), 4096, 10);
+        auditor.audit(new AuditEvent("Login"));
+
+        // the writer thread steals the buffer after max age
+        long deadline = System.currentTimeMillis() + 5000;
+        while (file.length() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(file.length() > 0);
+        auditor.close();
+    }
+
+    @Test
+    public void formatterFailureRemovesPartialLine() throws Exception {
+        File file = folder.newFile("audit.log");
+        AuditEventFormatter formatter = new SimpleAuditEventFormatter() {
+
+            @Override
+            public void formatTo(AuditEvent event, Appendable out) throws IOException {
+                super.formatTo(event, out);
+                if ("Fail".equals(event.getAction())) {
+                    throw new IllegalStateException("Cannot format");
+                }
+            }
+
+        };
+        ThreadLocalFileAuditor auditor = new ThreadLocalFileAuditor(file, formatter, 4096, 1000);
+        auditor.audit(new AuditEvent("Login1"));
+        try {
+            auditor.audit(new AuditEvent("Fail"));
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        auditor.audit(new AuditEvent("Login2"));
+        auditor.close();
+
+        // nothing of the failed event is glued to the next line
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("0 ") && lines.get(0).endsWith("- Login1"));
+        assertTrue(lines.get(1).startsWith("2 ") && lines.get(1).endsWith("- Login2"));
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor.log4j;
+
+import org.apache.log4j.Category;
+import org.apache.log4j.Level;
+import org.apache.log4j.spi.LoggingEvent;
+import ro.fortsoft.auditor.AuditEvent;
+
+import java.util.Map;
+
+/**
+ * A {@link LoggingEvent} that carries the {@link AuditEvent} it was created from,
+ * so {@link AuditPatternLayout} can format the audit details (context, error message, level).
+ *
+ * @author Decebal Suiu
+ */
+public class AuditLoggingEvent extends LoggingEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient AuditEvent auditEvent;
+
+    /**
+     * @param fqnOfCategoryClass
+     * @param logger
+     * @param level
+     * @param auditEvent
+     * @param ndc
+     * @param properties the properties are copied
+     */
+    public AuditLoggingEvent(String fqnOfCategoryClass, Category logger, Level level, AuditEvent auditEvent,
+                             String ndc, Map<String, ?> properties) {
+        this(fqnOfCategoryClass, logger, level, auditEvent, null, ndc, properties);
+    }
+
+    /**
+     * @param fqnOfCategoryClass
+     * @param logger
+     * @param level
+     * @param auditEvent
+     * @param threadName the name of the thread that audited the event, or {@code null} for the current thread
+     * @param ndc
+     * @param properties the properties are copied, they replace the {@link org.apache.log4j.MDC} lookup
+     */
+    public AuditLoggingEvent(String fqnOfCategoryClass, Category logger, Level level, AuditEvent auditEvent,
+                             String threadName, String ndc, Map<String, ?> properties) {
+        super(fqnOfCategoryClass, logger, auditEvent.getTimestamp(), level, auditEvent.getAction(), threadName, null,
+            ndc, null, properties);
+
+        this.auditEvent = auditEvent;
+    }
+
+    /**
+     * Returns the audit event or {@code null} if this logging event was deserialized.
+     *
+     * @return
+     */
+    public AuditEvent getAuditEvent() {
+        return auditEvent;
+    }
+
+}
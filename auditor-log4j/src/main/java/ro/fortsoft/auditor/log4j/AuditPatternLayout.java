@@ -20,6 +20,10 @@ import org.apache.log4j.helpers.FormattingInfo;
 import org.apache.log4j.helpers.PatternConverter;
 import org.apache.log4j.helpers.PatternParser;
 import org.apache.log4j.spi.LoggingEvent;
+import ro.fortsoft.auditor.AuditEvent;
+
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * A log4j pattern layout implementation capable of capturing audit event details.
@@ -28,27 +32,86 @@ import org.apache.log4j.spi.LoggingEvent;
  * [%S] - session
  * [%U] - username
  * [%H] - host name/address
+ * [%C{key}] - the value of a context key (for example %C{orderId})
+ * [%C] - the whole context, in {@code {key1=value1, key2=value2}} form
+ * [%E] - error message
+ * [%A] - audit level (INFO or ERROR)
+ *
+ * The context, error message and audit level are available only for events created by {@link Log4jAuditor}
+ * (see {@link AuditLoggingEvent}). For other events, {@code %C{key}} reads the property with the same name.
+ * Note that {@code %C} replaces the log4j's caller class name converter (the location of an audit event is not relevant).
+ *
+ * The pattern is compiled once in a chain of converters and an event is formatted in a buffer
+ * of the calling thread (the layout can be shared by many appenders).
  *
  * How to use these patterns:
  * Configure the log4j.properties file using above patterns.
  * eg: for the audit appender,
  * log4j.appender.file.layout=ro.fortsoft.audit.log4j.AuditPatternLayout
- * log4j.appender.file.layout.ConversionPattern=[%d{MM/dd/yyyy HH:mm:ss}] %-5p %U %S %H %m%n
+ * log4j.appender.file.layout.ConversionPattern=[%d{MM/dd/yyyy HH:mm:ss}] %-5p %U %S %H %m %C - %E%n
  *
  * @author Decebal Suiu
  */
 public class AuditPatternLayout extends PatternLayout {
 
+    private static final ThreadLocal<StringBuffer> buffer = new ThreadLocal<StringBuffer>() {
+
+        @Override
+        protected StringBuffer initialValue() {
+            return new StringBuffer(256);
+        }
+
+    };
+
+    private volatile PatternConverter head;
+
+    @Override
+    public void setConversionPattern(String conversionPattern) {
+        super.setConversionPattern(conversionPattern);
+        head = createPatternParser(conversionPattern).parse();
+    }
+
+    @Override
+    public String format(LoggingEvent event) {
+        PatternConverter head = this.head;
+        if (head == null) {
+            // the pattern set by constructor
+            head = createPatternParser(getConversionPattern()).parse();
+            this.head = head;
+        }
+
+        StringBuffer sb = buffer.get();
+        if (sb.capacity() > MAX_CAPACITY) {
+            sb = new StringBuffer(BUF_SIZE);
+            buffer.set(sb);
+        } else {
+            sb.setLength(0);
+        }
+
+        for (PatternConverter converter = head; converter != null; converter = converter.next) {
+            converter.format(sb, event);
+        }
+
+        return sb.toString();
+    }
+
     @Override
     protected PatternParser createPatternParser(String pattern) {
         return new AuditPatternParser(pattern);
     }
 
+    private static AuditEvent getAuditEvent(LoggingEvent loggingEvent) {
+        return (loggingEvent instanceof AuditLoggingEvent) ? ((AuditLoggingEvent) loggingEvent).getAuditEvent() : null;
+    }
+
     private static class AuditPatternParser extends PatternParser {
 
         private static final char USERNAME = 'U';
         private static final char SESSION = 'S';
         private static final char IP = 'H';
+        private static final char CONTEXT = 'C';
+        private static final char ERROR_MESSAGE = 'E';
+        private static final char AUDIT_LEVEL = 'A';
 
         private AuditPatternParser(String pattern) {
             super(pattern);
@@ -67,6 +130,20 @@ public class AuditPatternLayout extends PatternLayout {
                 case IP:
                     converter = new PropertyPatternConverter(formattingInfo, "ip");
                     break;
+                case CONTEXT:
+                    String key = extractOption();
+                    if (key == null) {
+                        converter = new ContextPatternConverter(formattingInfo);
+                    } else {
+                        converter = new ContextKeyPatternConverter(formattingInfo, key);
+                    }
+                    break;
+                case ERROR_MESSAGE:
+                    converter = new ErrorMessagePatternConverter(formattingInfo);
+                    break;
+                case AUDIT_LEVEL:
+                    converter = new AuditLevelPatternConverter(formattingInfo);
+                    break;
                 default:
                     super.finalizeConverter(c);
             }
@@ -95,4 +172,91 @@ public class AuditPatternLayout extends PatternLayout {
 
     }
 
+    private static class ContextKeyPatternConverter extends PatternConverter {
+
+        private final String key;
+
+        private ContextKeyPatternConverter(FormattingInfo formattingInfo, String key) {
+            super(formattingInfo);
+
+            this.key = key;
+        }
+
+        @Override
+        protected String convert(LoggingEvent loggingEvent) {
+            AuditEvent event = getAuditEvent(loggingEvent);
+            if (event == null) {
+                return loggingEvent.getProperty(key);
+            }
+
+            Object value = event.hasContext() ? event.getContext().get(key) : null;
+
+            return (value != null) ? value.toString() : null;
+        }
+
+    }
+
+    private static class ContextPatternConverter extends PatternConverter {
+
+        private ContextPatternConverter(FormattingInfo formattingInfo) {
+            super(formattingInfo);
+        }
+
+        @Override
+        protected String convert(LoggingEvent loggingEvent) {
+            AuditEvent event = getAuditEvent(loggingEvent);
+            if (event == null || !event.hasContext()) {
+                return null;
+            }
+
+            StringBuilder sb = new StringBuilder();
+            sb.append('{');
+            Iterator<Map.Entry<String, Object>> it = event.getContext().entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Object> entry = it.next();
+                sb.append(entry.getKey()).append('=').append(entry.getValue());
+                if (it.hasNext()) {
+                    sb.append(", ");
+                }
+            }
+            sb.append('}');
+
+            return sb.toString();
+        }
+
+    }
+
+    private static class ErrorMessagePatternConverter extends PatternConverter {
+
+        private ErrorMessagePatternConverter(FormattingInfo formattingInfo) {
+            super(formattingInfo);
+        }
+
+        @Override
+        protected String convert(LoggingEvent loggingEvent) {
+            AuditEvent event = getAuditEvent(loggingEvent);
+
+            return (event != null) ? event.getErrorMessage() : null;
+        }
+
+    }
+
+    private static class AuditLevelPatternConverter extends PatternConverter {
+
+        private AuditLevelPatternConverter(FormattingInfo formattingInfo) {
+            super(formattingInfo);
+        }
+
+        @Override
+        protected String convert(LoggingEvent loggingEvent) {
+            AuditEvent event = getAuditEvent(loggingEvent);
+            if (event == null) {
+                return null;
+            }
+
+            return (event.getLevel() == AuditEvent.ERROR) ? "ERROR" : "INFO";
+        }
+
+    }
+
 }
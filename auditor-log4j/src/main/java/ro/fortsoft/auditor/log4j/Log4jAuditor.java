@@ -16,52 +16,189 @@
 package ro.fortsoft.auditor.log4j;
 
 import org.apache.log4j.Appender;
+import org.apache.log4j.Category;
+import org.apache.log4j.Hierarchy;
 import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.apache.log4j.MDC;
+import org.apache.log4j.NDC;
+import org.apache.log4j.spi.HierarchyEventListener;
+import org.apache.log4j.spi.LoggerRepository;
 import org.apache.log4j.spi.LoggingEvent;
+import ro.fortsoft.auditor.AsyncAuditor;
 import ro.fortsoft.auditor.AuditEvent;
 import ro.fortsoft.auditor.Auditor;
+import ro.fortsoft.auditor.OverflowPolicy;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Log4J based {@link Auditor}.
  * The {@link AuditEvent}s are converted to {@link LoggingEvent}s and added to {@link Appender}s.
  * Information like {@code username}, {@code session}, {@code ip} are added as properties in LoggingEvent.
  * Before send the event to appenders, some eventual missing property (username, session, ip) are extracted
- * from {@link MDC} if they exist.
+ * from {@link MDC} if they exist (this lookup can be disabled).
  * In your {@code log4j.properties} you can use {@link AuditPatternLayout} if you want to capturing
  * audit event details via patterns.
  *
+ * The appenders of logger are cached in an array, refreshed only when an appender is added or removed
+ * (the change is detected with a {@link HierarchyEventListener}), so an event doesn't take the logger's lock.
+ * Log4j never removes a listener, so one listener is registered per hierarchy (shared by all auditors)
+ * and a change of any logger refreshes the caches of all auditors.
+ *
+ * Optionally, the events are passed to appenders on a worker thread (see {@link AsyncAuditor}).
+ * In this mode the logging event (with the thread name, the {@link NDC} and a copy of the {@link MDC})
+ * is created on the caller thread, before it's added to buffer, and {@link #close()} must be called
+ * on shutdown application.
+ *
  * @author Decebal Suiu
  */
 public class Log4jAuditor implements Auditor {
 
+    // incremented on each appender change, in any listened hierarchy
+    private static final AtomicInteger configVersion = new AtomicInteger();
+    private static final Set<LoggerRepository> listenedRepositories = Collections.newSetFromMap(new WeakHashMap<LoggerRepository, Boolean>());
+
     private final Logger log;
+    private final boolean useMDC;
+    private final boolean detectsChanges;
+    private final AsyncAuditor asyncAuditor;
+
+    private volatile AppendersSnapshot appenders;
+
+    private static final ThreadLocal<Map<String, Object>> properties = new ThreadLocal<Map<String, Object>>() {
+
+        @Override
+        protected Map<String, Object> initialValue() {
+            return new HashMap<>();
+        }
+
+    };
 
     public Log4jAuditor() {
         this(Log4jAuditor.class.getName());
     }
 
     public Log4jAuditor(String loggerName) {
+        this(loggerName, true);
+    }
+
+    /**
+     * @param loggerName
+     * @param useMDC if {@code false} the {@link MDC} (and {@link NDC}) are ignored
+     */
+    public Log4jAuditor(String loggerName, boolean useMDC) {
+        this(loggerName, useMDC, 0, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param loggerName
+     * @param useMDC if {@code false} the {@link MDC} (and {@link NDC}) are ignored
+     * @param bufferSize if positive, the events are passed to appenders on a worker thread
+     *                   and this is the number of events that can wait
+     * @param overflowPolicy what happens when the buffer is full
+     */
+    public Log4jAuditor(String loggerName, boolean useMDC, int bufferSize, OverflowPolicy overflowPolicy) {
         log = Logger.getLogger(loggerName);
+        this.useMDC = useMDC;
+
+        // without a hierarchy there is no way to detect configuration changes, the appenders are collected for each event
+        detectsChanges = listen(LogManager.getLoggerRepository());
+
+        if (bufferSize > 0) {
+            asyncAuditor = new AsyncAuditor(new Auditor() {
+
+                @Override
+                public void audit(AuditEvent event) {
+                    append(((CallerEvent) event).loggingEvent, getAppenders());
+                }
+
+            }, bufferSize, overflowPolicy);
+        } else {
+            asyncAuditor = null;
+        }
     }
 
-    @SuppressWarnings("unchecked")
     public void audit(AuditEvent event) {
-        initFromMDC(event);
+        if (useMDC) {
+            initFromMDC(event);
+        }
 
-        // create the logging event from audit event
-        LoggingEvent loggingEvent = new LoggingEvent(log.getName(), log, Level.DEBUG, event.getAction(), null);
-        loggingEvent.setProperty("username", event.getUsername());
-        loggingEvent.setProperty("session", event.getSession());
-        loggingEvent.setProperty("ip", event.getIp());
+        if (asyncAuditor != null) {
+            asyncAuditor.audit(new CallerEvent(event, createLoggingEvent(event)));
+        } else {
+            append(event);
+        }
+    }
 
-        // add the logging event to all appenders
-        Enumeration<Appender> en = log.getAllAppenders();
-        while (en.hasMoreElements()) {
-            en.nextElement().doAppend(loggingEvent);
+    /**
+     * In asynchronous mode, the future is completed after the event was passed to appenders
+     * (see {@link AsyncAuditor#auditAsync(AuditEvent)}).
+     *
+     * @param event
+     * @return
+     */
+    @Override
+    public CompletableFuture<Void> auditAsync(AuditEvent event) {
+        if (asyncAuditor == null) {
+            return Auditor.super.auditAsync(event);
+        }
+
+        if (useMDC) {
+            initFromMDC(event);
+        }
+
+        return asyncAuditor.auditAsync(new CallerEvent(event, createLoggingEvent(event)));
+    }
+
+    /**
+     * Audit a batch of events. The {@link MDC} is read once for the batch and the appenders are collected once
+     * (in asynchronous mode the events are added to buffer in bulk).
+     *
+     * @param events
+     */
+    @Override
+    public void auditAll(Collection<AuditEvent> events) {
+        if (useMDC) {
+            String username = (String) MDC.get("username");
+            String session = (String) MDC.get("session");
+            String ip = (String) MDC.get("ip");
+            for (AuditEvent event : events) {
+                initFrom(event, username, session, ip);
+            }
+        }
+
+        if (asyncAuditor != null) {
+            List<AuditEvent> callerEvents = new ArrayList<>(events.size());
+            for (AuditEvent event : events) {
+                callerEvents.add(new CallerEvent(event, createLoggingEvent(event)));
+            }
+            asyncAuditor.auditAll(callerEvents);
+        } else {
+            Appender[] appenders = getAppenders();
+            for (AuditEvent event : events) {
+                append(createLoggingEvent(event), appenders);
+            }
+        }
+    }
+
+    /**
+     * Pass the buffered events to appenders and stop the worker thread (if the auditor is asynchronous).
+     */
+    public void close() {
+        if (asyncAuditor != null) {
+            asyncAuditor.close();
         }
     }
 
@@ -78,4 +215,151 @@ public class Log4jAuditor implements Auditor {
         }
     }
 
+    private static void initFrom(AuditEvent event, String username, String session, String ip) {
+        if (event.getUsername() == null) {
+            event.setUsername(username);
+        }
+        if (event.getSession() == null) {
+            event.setSession(session);
+        }
+        if (event.getIp() == null) {
+            event.setIp(ip);
+        }
+    }
+
+    /**
+     * Create the logging event from audit event and add it to all appenders of logger.
+     *
+     * @param event
+     */
+    protected void append(AuditEvent event) {
+        append(createLoggingEvent(event), getAppenders());
+    }
+
+    private static void append(LoggingEvent loggingEvent, Appender[] appenders) {
+        for (Appender appender : appenders) {
+            appender.doAppend(loggingEvent);
+        }
+    }
+
+    /**
+     * Create the logging event with the context of the current (caller) thread: the thread name,
+     * the {@link NDC} and the {@link MDC} (the properties of the logging event replace the MDC lookup,
+     * so the MDC is copied, with the audit properties on top).
+     */
+    @SuppressWarnings("unchecked")
+    private LoggingEvent createLoggingEvent(AuditEvent event) {
+        // the map is copied by LoggingEvent, so it can be reused
+        Map<String, Object> properties = Log4jAuditor.properties.get();
+        properties.clear();
+        String ndc = null;
+        if (useMDC) {
+            Map<String, Object> mdc = MDC.getContext();
+            if (mdc != null) {
+                properties.putAll(mdc);
+            }
+            ndc = NDC.get();
+        }
+        putProperty(properties, "username", event.getUsername());
+        putProperty(properties, "session", event.getSession());
+        putProperty(properties, "ip", event.getIp());
+
+        return new AuditLoggingEvent(log.getName(), log, Level.DEBUG, event, Thread.currentThread().getName(), ndc, properties);
+    }
+
+    private Appender[] getAppenders() {
+        AppendersSnapshot snapshot = appenders;
+        int version = configVersion.get();
+        if (snapshot == null || snapshot.version != version || !detectsChanges) {
+            snapshot = new AppendersSnapshot(version, collectAppenders());
+            appenders = snapshot;
+        }
+
+        return snapshot.appenders;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Appender[] collectAppenders() {
+        List<Appender> list = new ArrayList<>();
+        Enumeration<Appender> en = log.getAllAppenders();
+        while (en.hasMoreElements()) {
+            list.add(en.nextElement());
+        }
+
+        return list.toArray(new Appender[list.size()]);
+    }
+
+    private static void putProperty(Map<String, Object> properties, String key, String value) {
+        // LoggingEvent copies the properties in a Hashtable (null is not allowed)
+        if (value != null) {
+            properties.put(key, value);
+        }
+    }
+
+    /**
+     * Register (once) the listener that invalidates the appenders snapshots.
+     *
+     * @param repository
+     * @return {@code false} if the changes of appenders cannot be detected
+     */
+    private static boolean listen(LoggerRepository repository) {
+        if (!(repository instanceof Hierarchy)) {
+            return false;
+        }
+
+        synchronized (listenedRepositories) {
+            if (listenedRepositories.add(repository)) {
+                ((Hierarchy) repository).addHierarchyEventListener(AppenderListener.INSTANCE);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * The event passed to the worker thread, with the logging event created on the caller thread.
+     */
+    private static class CallerEvent extends AuditEvent {
+
+        private final LoggingEvent loggingEvent;
+
+        private CallerEvent(AuditEvent event, LoggingEvent loggingEvent) {
+            super(event.getAction(), event.getLevel());
+
+            this.loggingEvent = loggingEvent;
+        }
+
+    }
+
+    private static class AppendersSnapshot {
+
+        private final int version;
+        private final Appender[] appenders;
+
+        private AppendersSnapshot(int version, Appender[] appenders) {
+            this.version = version;
+            this.appenders = appenders;
+        }
+
+    }
+
+    /**
+     * Invalidates the appenders snapshots of all auditors.
+     */
+    private static class AppenderListener implements HierarchyEventListener {
+
+        private static final AppenderListener INSTANCE = new AppenderListener();
+
+        @Override
+        public void addAppenderEvent(Category category, Appender appender) {
+            configVersion.incrementAndGet();
+        }
+
+        @Override
+        public void removeAppenderEvent(Category category, Appender appender) {
+            configVersion.incrementAndGet();
+        }
+
+    }
+
 }
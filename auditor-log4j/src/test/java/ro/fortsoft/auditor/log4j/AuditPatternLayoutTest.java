@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 Decebal Suiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ro.fortsoft.auditor.log4j;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import ro.fortsoft.auditor.AuditEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Decebal Suiu
+ */
+public class AuditPatternLayoutTest {
+
+    @Test
+    public void auditConverters() {
+        AuditPatternLayout layout = new AuditPatternLayout();
+        layout.setConversionPattern("%A %U %m %C{orderId} %C - %E");
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put("username", "decebal");
+        AuditEvent event = new AuditEvent("Order").setUsername("decebal").put("orderId", 10).setErrorMessage("Failed");
+        Logger logger = Logger.getLogger("audit");
+        AuditLoggingEvent loggingEvent = new AuditLoggingEvent(logger.getName(), logger, Level.DEBUG, event, null, properties);
+
+        assertEquals("ERROR decebal Order 10 {orderId=10} - Failed", layout.format(loggingEvent));
+    }
+
+    @Test
+    public void defaultPattern() {
+        AuditPatternLayout layout = new AuditPatternLayout();
+        Logger logger = Logger.getLogger("audit");
+        AuditLoggingEvent loggingEvent = new AuditLoggingEvent(logger.getName(), logger, Level.DEBUG, new AuditEvent("Login"),
+            null, new HashMap<String, String>());
+
+        assertEquals("Login" + System.getProperty("line.separator"), layout.format(loggingEvent));
+    }
+
+}
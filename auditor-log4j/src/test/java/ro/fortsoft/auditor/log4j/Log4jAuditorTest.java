@@ -15,14 +15,24 @@
  */
 package ro.fortsoft.auditor.log4j;
 
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Logger;
 import org.apache.log4j.MDC;
+import org.apache.log4j.NDC;
+import org.apache.log4j.spi.LoggingEvent;
 import org.junit.Before;
 import org.junit.Test;
 import ro.fortsoft.auditor.AuditEvent;
 import ro.fortsoft.auditor.Auditor;
+import ro.fortsoft.auditor.OverflowPolicy;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
+import static org.junit.Assert.assertEquals;
+
 /**
  * @author Decebal Suiu
  */
@@ -48,8 +58,146 @@ public class Log4jAuditorTest {
         auditor.audit(new AuditEvent("Login"));
     }
 
+    @Test
+    public void appenderChange() {
+        Logger logger = Logger.getLogger("audit.appenderChange");
+        logger.setAdditivity(false);
+        Log4jAuditor auditor = new Log4jAuditor(logger.getName());
+        auditor.audit(new AuditEvent("Login"));
+
+        // the cached appenders are refreshed
+        ListAppender appender = new ListAppender();
+        logger.addAppender(appender);
+        auditor.audit(new AuditEvent("Login").setUsername("decebal"));
+        logger.removeAppender(appender);
+        auditor.audit(new AuditEvent("Logout"));
+
+        assertEquals(1, appender.events.size());
+        assertEquals("decebal", appender.events.get(0).getProperty("username"));
+    }
+
+    @Test
+    public void async() {
+        Logger logger = Logger.getLogger("audit.async");
+        logger.setAdditivity(false);
+        ListAppender appender = new ListAppender();
+        logger.addAppender(appender);
+        Log4jAuditor auditor = new Log4jAuditor(logger.getName(), true, 64, OverflowPolicy.BLOCK);
+
+        // the MDC is read on the caller thread
+        MDC.put("username", "decebal3");
+        try {
+            for (int i = 0; i < 100; i++) {
+                auditor.audit(new AuditEvent("Login"));
+            }
+        } finally {
+            MDC.remove("username");
+        }
+        auditor.close();
+
+        assertEquals(100, appender.events.size());
+        assertEquals("decebal3", appender.events.get(99).getProperty("username"));
+        logger.removeAppender(appender);
+    }
+
+    @Test
+    public void asyncKeepsCallerContext() throws Exception {
+        Logger logger = Logger.getLogger("audit.asyncKeepsCallerContext");
+        logger.setAdditivity(false);
+        ListAppender appender = new ListAppender();
+        logger.addAppender(appender);
+
+        // the worker thread inherits this MDC
+        MDC.put("requestId", "stale");
+        final Log4jAuditor auditor;
+        try {
+            auditor = new Log4jAuditor(logger.getName(), true, 64, OverflowPolicy.BLOCK);
+            auditor.audit(new AuditEvent("Start"));
+        } finally {
+            MDC.remove("requestId");
+        }
+
+        Thread caller = new Thread("caller") {
+
+            @Override
+            public void run() {
+                NDC.push("ctx");
+                MDC.put("requestId", "R1");
+                try {
+                    auditor.audit(new AuditEvent("Login").setUsername("decebal5"));
+                } finally {
+                    MDC.remove("requestId");
+                    NDC.remove();
+                }
+            }
+
+        };
+        caller.start();
+        caller.join();
+        auditor.close();
+
+        assertEquals(2, appender.events.size());
+        LoggingEvent event = appender.events.get(1);
+        assertEquals("Login", event.getMessage());
+        assertEquals("caller", event.getThreadName());
+        assertEquals("ctx", event.getNDC());
+        assertEquals("R1", event.getMDC("requestId"));
+        assertEquals("decebal5", event.getProperty("username"));
+        logger.removeAppender(appender);
+    }
+
+    @Test
+    public void auditAll() {
+        Logger logger = Logger.getLogger("audit.auditAll");
+        logger.setAdditivity(false);
+        ListAppender appender = new ListAppender();
+        logger.addAppender(appender);
+        Log4jAuditor auditor = new Log4jAuditor(logger.getName());
+        Log4jAuditor asyncAuditor = new Log4jAuditor(logger.getName(), true, 64, OverflowPolicy.BLOCK);
+
+        List<AuditEvent> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            events.add(new AuditEvent("Login" + i));
+        }
+        MDC.put("username", "decebal4");
+        try {
+            auditor.auditAll(events);
+            asyncAuditor.auditAll(events);
+        } finally {
+            MDC.remove("username");
+        }
+        asyncAuditor.close();
+
+        assertEquals(200, appender.events.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals("Login" + (i % 100), appender.events.get(i).getMessage());
+            assertEquals("decebal4", appender.events.get(i).getProperty("username"));
+        }
+        logger.removeAppender(appender);
+    }
+
     private static String getUUID() {
         return UUID.randomUUID().toString();
     }
 
+    private static class ListAppender extends AppenderSkeleton {
+
+        private final List<LoggingEvent> events = Collections.synchronizedList(new ArrayList<LoggingEvent>());
+
+        @Override
+        protected void append(LoggingEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean requiresLayout() {
+            return false;
+        }
+
+    }
+
 }